@@ -0,0 +1,141 @@
+package smartchess;
+
+// AnalysisService.java - Rules and engine work off the Swing event thread
+//
+// analyze() copies the board on the calling thread and hands the copy to a
+// worker pool, which reports the legal moves and status first and then
+// every completed search iteration. Results are passed to a publishing
+// Executor (SwingUtilities::invokeLater for the GUI) and delivered only if
+// their request is still the latest one: starting a new analysis or
+// cancelling stops the old search, and anything it already queued is
+// dropped on arrival. All searches share one transposition table, so
+// analysing the next position reuses what was learnt on the previous one.
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public final class AnalysisService implements AutoCloseable {
+    // Callbacks run on the publishing Executor, in this order
+    public interface Listener {
+        void positionAnalyzed(GameStatus status, int[] legalMoves);
+        
+        // After each completed search iteration
+        void progress(SearchResult result);
+        
+        // The final result, unless the request was cancelled first
+        void finished(SearchResult result);
+    }
+    
+    private final ExecutorService workers;
+    private final Executor publisher;
+    private final TranspositionTable table;
+    private volatile OpeningBook book;
+    private volatile Tablebase tablebase;
+    private Request current;
+    
+    public AnalysisService(int threads, Executor publisher) {
+        AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable, "smartchess-analysis-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.publisher = publisher;
+        this.table = new TranspositionTable(Search.DEFAULT_TABLE_MB);
+    }
+    
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+    
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+    
+    // Starts analysing a snapshot of board, replacing any earlier request
+    public synchronized Request analyze(ChessBoard board, SearchLimits limits, Listener listener) {
+        if (current != null) {
+            current.cancel();
+        }
+        Request request = new Request(new ChessBoard(board), limits, listener);
+        current = request;
+        workers.execute(request::run);
+        return request;
+    }
+    
+    // Cancels the latest request, if any
+    public synchronized void cancel() {
+        if (current != null) {
+            current.cancel();
+            current = null;
+        }
+    }
+    
+    @Override
+    public void close() {
+        cancel();
+        workers.shutdownNow();
+    }
+    
+    // One analysis; results stop flowing as soon as it is cancelled
+    public final class Request {
+        private final ChessBoard snapshot;
+        private final SearchLimits limits;
+        private final Listener listener;
+        private volatile boolean cancelled;
+        private volatile Search search;
+        
+        private Request(ChessBoard snapshot, SearchLimits limits, Listener listener) {
+            this.snapshot = snapshot;
+            this.limits = limits;
+            this.listener = listener;
+        }
+        
+        public void cancel() {
+            cancelled = true;
+            Search running = search;
+            if (running != null) {
+                running.stop();
+            }
+        }
+        
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        private void run() {
+            if (cancelled) return;
+            int[] moves = new int[MoveGenerator.MAX_MOVES];
+            int count = snapshot.generateMoves(moves);
+            GameStatus status = snapshot.evaluateStatus();
+            int[] legal = Arrays.copyOf(moves, count);
+            publish(() -> listener.positionAnalyzed(status, legal));
+            if (count == 0) return;
+            
+            Search engine = new Search(table);
+            engine.setOpeningBook(book);
+            engine.setTablebase(tablebase);
+            engine.setProgressListener(result -> {
+                // Also catches a cancel that raced with the search starting
+                if (cancelled) {
+                    engine.stop();
+                } else {
+                    publish(() -> listener.progress(result));
+                }
+            });
+            search = engine;
+            if (cancelled) return;
+            SearchResult result = engine.search(snapshot, limits);
+            publish(() -> listener.finished(result));
+        }
+        
+        private void publish(Runnable callback) {
+            if (cancelled) return;
+            publisher.execute(() -> {
+                if (!cancelled) callback.run();
+            });
+        }
+    }
+}
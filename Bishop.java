@@ -16,6 +16,9 @@ class Bishop extends Piece {
         return isPathClear(from, to, board);
     }
     
+    @Override
+    public int getType() { return Bitboards.BISHOP; }
+    
     @Override
     public String getName() { return "Bishop"; }
     
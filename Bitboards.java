@@ -0,0 +1,137 @@
+package smartchess;
+
+// Bitboards.java - Square sets and attack tables for the board backend
+//
+// Squares are numbered row * 8 + col, matching Position, so a8 is bit 0
+// and h1 is bit 63. White pawns therefore move towards lower indexes.
+final class Bitboards {
+    public static final int WHITE = 0;
+    public static final int BLACK = 1;
+
+    public static final int PAWN = 0;
+    public static final int KNIGHT = 1;
+    public static final int BISHOP = 2;
+    public static final int ROOK = 3;
+    public static final int QUEEN = 4;
+    public static final int KING = 5;
+
+    public static final int EMPTY = -1;
+
+    static final long[] KNIGHT_ATTACKS = new long[64];
+    static final long[] KING_ATTACKS = new long[64];
+    static final long[][] PAWN_ATTACKS = new long[2][64];
+
+    // Ray directions as (row, col) steps; the first four are rook rays
+    private static final int[] DIR_ROW = {-1, 1, 0, 0, -1, -1, 1, 1};
+    private static final int[] DIR_COL = {0, 0, -1, 1, -1, 1, -1, 1};
+    private static final long[][] RAYS = new long[8][64];
+    
+    // Squares strictly between two aligned squares, and the full line through them
+    static final long[][] BETWEEN = new long[64][64];
+    static final long[][] LINE = new long[64][64];
+
+    static {
+        int[][] knightSteps = {{-2, -1}, {-2, 1}, {-1, -2}, {-1, 2}, {1, -2}, {1, 2}, {2, -1}, {2, 1}};
+        for (int sq = 0; sq < 64; sq++) {
+            int row = sq >>> 3;
+            int col = sq & 7;
+
+            for (int[] step : knightSteps) {
+                KNIGHT_ATTACKS[sq] |= bitAt(row + step[0], col + step[1]);
+            }
+            for (int dr = -1; dr <= 1; dr++) {
+                for (int dc = -1; dc <= 1; dc++) {
+                    if (dr != 0 || dc != 0) {
+                        KING_ATTACKS[sq] |= bitAt(row + dr, col + dc);
+                    }
+                }
+            }
+            PAWN_ATTACKS[WHITE][sq] = bitAt(row - 1, col - 1) | bitAt(row - 1, col + 1);
+            PAWN_ATTACKS[BLACK][sq] = bitAt(row + 1, col - 1) | bitAt(row + 1, col + 1);
+
+            for (int dir = 0; dir < 8; dir++) {
+                int r = row + DIR_ROW[dir];
+                int c = col + DIR_COL[dir];
+                while (r >= 0 && r < 8 && c >= 0 && c < 8) {
+                    RAYS[dir][sq] |= 1L << (r * 8 + c);
+                    r += DIR_ROW[dir];
+                    c += DIR_COL[dir];
+                }
+            }
+        }
+        
+        // Rays come in opposite pairs: 0/1, 2/3, 4/7 and 5/6
+        int[] opposite = {1, 0, 3, 2, 7, 6, 5, 4};
+        for (int sq = 0; sq < 64; sq++) {
+            for (int dir = 0; dir < 8; dir++) {
+                for (long ray = RAYS[dir][sq]; ray != 0; ray &= ray - 1) {
+                    int target = Long.numberOfTrailingZeros(ray);
+                    BETWEEN[sq][target] = RAYS[dir][sq] & RAYS[opposite[dir]][target];
+                    LINE[sq][target] = RAYS[dir][sq] | RAYS[opposite[dir]][sq] | (1L << sq);
+                }
+            }
+        }
+    }
+
+    private Bitboards() {
+    }
+
+    private static long bitAt(int row, int col) {
+        if (row < 0 || row > 7 || col < 0 || col > 7) return 0L;
+        return 1L << (row * 8 + col);
+    }
+
+    public static int square(int row, int col) {
+        return row * 8 + col;
+    }
+
+    public static int code(int color, int type) {
+        return color * 6 + type;
+    }
+
+    public static int colorOf(int code) {
+        return code < 6 ? WHITE : BLACK;
+    }
+
+    public static int typeOf(int code) {
+        return code % 6;
+    }
+
+    // Attacks along one ray, stopping at (and including) the first blocker
+    private static long rayAttacks(int dir, int sq, long occupied) {
+        long ray = RAYS[dir][sq];
+        long blockers = ray & occupied;
+        if (blockers == 0) return ray;
+
+        // Directions with a positive index step scan upwards, the rest downwards
+        int step = DIR_ROW[dir] * 8 + DIR_COL[dir];
+        int blocker = step > 0
+                ? Long.numberOfTrailingZeros(blockers)
+                : 63 - Long.numberOfLeadingZeros(blockers);
+        return ray ^ RAYS[dir][blocker];
+    }
+
+    public static long rookAttacks(int sq, long occupied) {
+        return rayAttacks(0, sq, occupied) | rayAttacks(1, sq, occupied)
+             | rayAttacks(2, sq, occupied) | rayAttacks(3, sq, occupied);
+    }
+
+    public static long bishopAttacks(int sq, long occupied) {
+        return rayAttacks(4, sq, occupied) | rayAttacks(5, sq, occupied)
+             | rayAttacks(6, sq, occupied) | rayAttacks(7, sq, occupied);
+    }
+
+    public static long queenAttacks(int sq, long occupied) {
+        return rookAttacks(sq, occupied) | bishopAttacks(sq, occupied);
+    }
+    
+    public static long pawnAttacks(int color, long pawns) {
+        // Shifts for the two capture directions, masking off wrap-around files
+        long notFileA = 0xFEFEFEFEFEFEFEFEL;
+        long notFileH = 0x7F7F7F7F7F7F7F7FL;
+        if (color == WHITE) {
+            return ((pawns >>> 9) & notFileH) | ((pawns >>> 7) & notFileA);
+        }
+        return ((pawns << 7) & notFileH) | ((pawns << 9) & notFileA);
+    }
+}
@@ -4,7 +4,6 @@ package smartchess;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
-import java.util.ArrayList;
 
 public class BoardPanel extends JPanel {
     private static final int SQUARE_SIZE = 70;
@@ -12,17 +11,28 @@ public class BoardPanel extends JPanel {
     private static final Color DARK_SQUARE = new Color(181, 136, 99);
     private static final Color SELECTED_COLOR = new Color(186, 202, 68);
     private static final Color VALID_MOVE_COLOR = new Color(100, 150, 100, 100);
+    private static final Font COORDINATE_FONT = new Font("Arial", Font.PLAIN, 12);
+    private static final BasicStroke CAPTURE_STROKE = new BasicStroke(4);
     
     private ChessBoard board;
     private ChessGUI gui;
     private Position selectedSquare;
-    private ArrayList<Position> validMoves;
+    private long highlights; // Target squares of the selected piece
+    private final int[] moveBuffer = new int[MoveGenerator.MAX_MOVES];
+    private final PieceSprites sprites = new PieceSprites();
+    
+    // What each square showed when it was last scheduled for repaint
+    private final byte[] shownPieces = new byte[64];
+    private long shownHighlights;
+    private int shownSelected = -1;
     
     public BoardPanel(ChessBoard board, ChessGUI gui) {
         this.board = board;
         this.gui = gui;
         this.selectedSquare = null;
-        this.validMoves = new ArrayList<>();
+        for (int sq = 0; sq < 64; sq++) {
+            shownPieces[sq] = (byte) board.pieceAt(sq);
+        }
         
         setPreferredSize(new Dimension(SQUARE_SIZE * 8, SQUARE_SIZE * 8));
         
@@ -35,41 +45,43 @@ public class BoardPanel extends JPanel {
     }
     
     private void handleMouseClick(MouseEvent e) {
-        int row = e.getY() / SQUARE_SIZE;
-        int col = e.getX() / SQUARE_SIZE;
+        int size = squareSize();
+        int row = e.getY() / size;
+        int col = e.getX() / size;
         
         if (!board.isValidPosition(row, col)) return;
         
-        Position clickedPos = new Position(row, col);
+        Position clickedPos = Position.of(row, col);
         
         if (selectedSquare == null) {
             // Select piece
             Piece piece = board.getPiece(row, col);
             if (piece != null && piece.isWhite() == board.isWhiteTurn()) {
                 selectedSquare = clickedPos;
-                validMoves = board.getValidMoves(selectedSquare);
+                highlights = targetsOf(selectedSquare);
                 gui.updateStatus("Selected: " + piece.getName());
-                repaint();
+                repaintChanged();
             }
         } else {
             // Try to move piece
-            if (validMoves.contains(clickedPos)) {
-                Piece piece = board.getPiece(selectedSquare.row, selectedSquare.col);
-                String moveNotation = getMoveNotation(selectedSquare, clickedPos, piece);
-                
+            if ((highlights & (1L << clickedPos.square())) != 0) {
                 if (board.movePiece(selectedSquare, clickedPos)) {
-                    gui.addMoveToHistory(moveNotation);
+                    gui.updateHistory();
                     gui.updateTurn();
                     
-                    // Check game state
-                    if (board.isCheckmate(!board.isWhiteTurn())) {
+                    // Check game state for the side now to move
+                    GameStatus status = board.evaluateStatus();
+                    if (status == GameStatus.CHECKMATE) {
                         String winner = board.isWhiteTurn() ? "Black" : "White";
                         gui.updateStatus("Checkmate! " + winner + " wins!");
                         JOptionPane.showMessageDialog(this, "Checkmate! " + winner + " wins!");
-                    } else if (board.isStalemate(!board.isWhiteTurn())) {
+                    } else if (status == GameStatus.STALEMATE) {
                         gui.updateStatus("Stalemate! Game is a draw!");
                         JOptionPane.showMessageDialog(this, "Stalemate! Game is a draw!");
-                    } else if (board.isInCheck(!board.isWhiteTurn())) {
+                    } else if (board.isThreefoldRepetition()) {
+                        gui.updateStatus("Threefold repetition! Game is a draw!");
+                        JOptionPane.showMessageDialog(this, "Threefold repetition! Game is a draw!");
+                    } else if (status == GameStatus.CHECK) {
                         gui.updateStatus("Check!");
                     } else {
                         gui.updateStatus("Move made successfully");
@@ -78,32 +90,18 @@ public class BoardPanel extends JPanel {
             }
             
             selectedSquare = null;
-            validMoves.clear();
-            repaint();
+            highlights = 0L;
+            repaintChanged();
         }
     }
     
-    private String getMoveNotation(Position from, Position to, Piece piece) {
-        String moveNum = "";
-        if (board.isWhiteTurn()) {
-            int moveCount = (gui != null) ? 1 : 1; // Simplified
-            moveNum = moveCount + ". ";
+    private long targetsOf(Position from) {
+        long targets = 0L;
+        int count = board.getValidMoves(from, moveBuffer);
+        for (int i = 0; i < count; i++) {
+            targets |= 1L << Move.toSquare(moveBuffer[i]);
         }
-        
-        String pieceSymbol = piece.getSymbol();
-        String fromSquare = positionToNotation(from);
-        String toSquare = positionToNotation(to);
-        
-        Piece captured = board.getPiece(to.row, to.col);
-        String captureSymbol = (captured != null) ? "x" : "-";
-        
-        return moveNum + pieceSymbol + fromSquare + captureSymbol + toSquare;
-    }
-    
-    private String positionToNotation(Position pos) {
-        char file = (char) ('a' + pos.col);
-        int rank = 8 - pos.row;
-        return "" + file + rank;
+        return targets;
     }
     
     @Override
@@ -112,98 +110,105 @@ public class BoardPanel extends JPanel {
         Graphics2D g2d = (Graphics2D) g;
         g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
         
-        // Draw board squares
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                drawSquare(g2d, row, col);
-            }
+        // Only the squares inside the clip, which is a single square or two
+        // after a move or selection
+        int size = squareSize();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, size * 8, size * 8);
         }
-        
-        // Draw coordinates
-        drawCoordinates(g2d);
-        
-        // Draw pieces
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                Piece piece = board.getPiece(row, col);
-                if (piece != null) {
-                    drawPiece(g2d, piece, row, col);
-                }
+        int firstRow = Math.max(0, clip.y / size);
+        int lastRow = Math.min(7, (clip.y + clip.height - 1) / size);
+        int firstCol = Math.max(0, clip.x / size);
+        int lastCol = Math.min(7, (clip.x + clip.width - 1) / size);
+        int pixels = (int) Math.round(size * g2d.getTransform().getScaleX());
+        for (int row = firstRow; row <= lastRow; row++) {
+            for (int col = firstCol; col <= lastCol; col++) {
+                drawSquare(g2d, row, col, size, pixels);
             }
         }
     }
     
-    private void drawSquare(Graphics2D g2d, int row, int col) {
+    // Square, move highlight, coordinate label and piece, in that order
+    private void drawSquare(Graphics2D g2d, int row, int col, int size, int pixels) {
+        int sq = Bitboards.square(row, col);
+        int x = col * size;
+        int y = row * size;
+        
         boolean isLight = (row + col) % 2 == 0;
         Color squareColor = isLight ? LIGHT_SQUARE : DARK_SQUARE;
-        
-        Position pos = new Position(row, col);
-        if (pos.equals(selectedSquare)) {
+        if (selectedSquare != null && selectedSquare.square() == sq) {
             squareColor = SELECTED_COLOR;
         }
-        
         g2d.setColor(squareColor);
-        g2d.fillRect(col * SQUARE_SIZE, row * SQUARE_SIZE, SQUARE_SIZE, SQUARE_SIZE);
+        g2d.fillRect(x, y, size, size);
         
-        // Highlight valid moves
-        if (validMoves.contains(pos)) {
+        Piece piece = board.getPiece(row, col);
+        if ((highlights & (1L << sq)) != 0) {
             g2d.setColor(VALID_MOVE_COLOR);
-            if (board.getPiece(row, col) != null) {
+            if (piece != null) {
                 // Draw ring for capture
-                g2d.setStroke(new BasicStroke(4));
-                g2d.drawOval(col * SQUARE_SIZE + 5, row * SQUARE_SIZE + 5, 
-                           SQUARE_SIZE - 10, SQUARE_SIZE - 10);
+                g2d.setStroke(CAPTURE_STROKE);
+                g2d.drawOval(x + size / 14, y + size / 14, size - size / 7, size - size / 7);
             } else {
                 // Draw circle for empty square
-                g2d.fillOval(col * SQUARE_SIZE + SQUARE_SIZE/2 - 10, 
-                           row * SQUARE_SIZE + SQUARE_SIZE/2 - 10, 20, 20);
+                int dot = size * 2 / 7;
+                g2d.fillOval(x + (size - dot) / 2, y + (size - dot) / 2, dot, dot);
             }
         }
-    }
-    
-    private void drawCoordinates(Graphics2D g2d) {
-        g2d.setFont(new Font("Arial", Font.PLAIN, 12));
-        g2d.setColor(Color.BLACK);
         
-        // Draw file letters (a-h)
-        for (int col = 0; col < 8; col++) {
-            char file = (char) ('a' + col);
-            g2d.drawString(String.valueOf(file), col * SQUARE_SIZE + SQUARE_SIZE - 15, 
-                         8 * SQUARE_SIZE - 5);
+        // File letters along the bottom, rank numbers down the left edge
+        if (row == 7 || col == 0) {
+            g2d.setFont(COORDINATE_FONT);
+            g2d.setColor(Color.BLACK);
+            if (row == 7) {
+                g2d.drawString(String.valueOf((char) ('a' + col)), x + size - 15, y + size - 5);
+            }
+            if (col == 0) {
+                g2d.drawString(String.valueOf(8 - row), x + 5, y + 15);
+            }
         }
         
-        // Draw rank numbers (1-8)
-        for (int row = 0; row < 8; row++) {
-            int rank = 8 - row;
-            g2d.drawString(String.valueOf(rank), 5, row * SQUARE_SIZE + 15);
+        if (piece != null) {
+            g2d.drawImage(sprites.get(piece, pixels), x, y, size, size, null);
         }
     }
     
-    private void drawPiece(Graphics2D g2d, Piece piece, int row, int col) {
-        String symbol = piece.getUnicodeSymbol();
-        g2d.setFont(new Font("Serif", Font.PLAIN, 50));
-        
-        FontMetrics fm = g2d.getFontMetrics();
-        int x = col * SQUARE_SIZE + (SQUARE_SIZE - fm.stringWidth(symbol)) / 2;
-        int y = row * SQUARE_SIZE + (SQUARE_SIZE + fm.getAscent()) / 2 - 5;
-        
-        // Draw shadow
-        g2d.setColor(new Color(0, 0, 0, 50));
-        g2d.drawString(symbol, x + 2, y + 2);
-        
-        // Draw piece
-        g2d.setColor(piece.isWhite() ? Color.WHITE : Color.BLACK);
-        g2d.drawString(symbol, x, y);
+    // Side of a square: the largest that fits the panel
+    private int squareSize() {
+        int fit = Math.min(getWidth(), getHeight()) / 8;
+        return fit > 0 ? fit : SQUARE_SIZE;
+    }
+    
+    // Schedules a repaint of just the squares whose piece, selection or
+    // highlight changed since the last call
+    private void repaintChanged() {
+        int selected = selectedSquare == null ? -1 : selectedSquare.square();
+        long dirty = highlights ^ shownHighlights;
+        if (selected != shownSelected) {
+            if (selected >= 0) dirty |= 1L << selected;
+            if (shownSelected >= 0) dirty |= 1L << shownSelected;
+        }
+        for (int sq = 0; sq < 64; sq++) {
+            byte code = (byte) board.pieceAt(sq);
+            if (code != shownPieces[sq]) {
+                shownPieces[sq] = code;
+                dirty |= 1L << sq;
+            }
+        }
+        shownHighlights = highlights;
+        shownSelected = selected;
         
-        // Draw outline
-        g2d.setColor(piece.isWhite() ? Color.BLACK : Color.WHITE);
-        g2d.setStroke(new BasicStroke(1));
-        g2d.setFont(new Font("Serif", Font.PLAIN, 50));
+        int size = squareSize();
+        for (; dirty != 0; dirty &= dirty - 1) {
+            int sq = Long.numberOfTrailingZeros(dirty);
+            repaint((sq & 7) * size, (sq >>> 3) * size, size, size);
+        }
     }
     
     public void refresh() {
         selectedSquare = null;
-        validMoves.clear();
-        repaint();
+        highlights = 0L;
+        repaintChanged();
     }
 }
\ No newline at end of file
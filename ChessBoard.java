@@ -1,79 +1,183 @@
 package smartchess;
 
 // ChessBoard.java - Complete Chess Board Logic
-import java.io.*;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Stack;
+import java.util.Arrays;
 
 public class ChessBoard {
-    private Piece[][] board;
+    // Shared, stateless Piece views handed out to the Swing layer, by piece code
+    private static final Piece[] PIECE_VIEWS = {
+        new Pawn(true), new Knight(true), new Bishop(true),
+        new Rook(true), new Queen(true), new King(true),
+        new Pawn(false), new Knight(false), new Bishop(false),
+        new Rook(false), new Queen(false), new King(false)
+    };
+    
+    // One bitboard per piece code, occupancy per color, and a square -> code lookup
+    private final long[] pieces = new long[12];
+    private final long[] occupied = new long[2];
+    private long allOccupied;
+    private final byte[] squares = new byte[64];
     private boolean whiteTurn;
-    private Stack<Move> moveHistory;
-    private Position enPassantTarget;
+    // Square a pawn may capture onto en passant, or -1. Only set when an
+    // enemy pawn is actually in a position to make the capture.
+    private int enPassantSquare;
     private boolean whiteKingMoved;
     private boolean blackKingMoved;
     private boolean whiteRookLeftMoved;
     private boolean whiteRookRightMoved;
     private boolean blackRookLeftMoved;
     private boolean blackRookRightMoved;
+    private final int[] moveBuffer = new int[MoveGenerator.MAX_MOVES];
+    
+    // Attack maps, checkers and pinned pieces per color, so legality tests
+    // reduce to mask checks. attackedBy[c] treats the other king as
+    // transparent, so squares behind it along a ray still count. makeMove
+    // only marks them stale and they are rebuilt on first use; unmakeMove
+    // restores the copy saved on the ply stack instead of rebuilding.
+    private final long[] attackedBy = new long[2];
+    private final long[] checkers = new long[2];
+    private final long[] pinned = new long[2];
+    private boolean mapsStale;
+    
+    // Status of the side to move, cleared whenever the position changes
+    private GameStatus cachedStatus;
+    
+    // Zobrist key of the current position, kept in step with every mutation
+    private long zobristKey;
+    
+    // Key and halfmove clock of every position reached, indexed by ply, plus
+    // the move played from it and the state makeMove needs to take it back:
+    // castling rights in bits 0-3 and en passant square + 1 from bit 4. The
+    // captured piece travels in the move itself, so every undo is O(1).
+    private long[] keyHistory = new long[256];
+    private int[] clockHistory = new int[256];
+    private int[] undoMoves = new int[256];
+    private int[] undoStates = new int[256];
+    // Attack maps of the position at each ply, MAP_WORDS longs per ply, and
+    // whether they were current when the move from that ply was made
+    private static final int MAP_WORDS = 6;
+    private long[] mapHistory = new long[256 * MAP_WORDS];
+    private boolean[] mapSaved = new boolean[256];
+    private int ply;
+    private int halfmoveClock;
+    // Fullmove number of the position at ply 0
+    private int startFullmove = 1;
+    
+    // Scratch square codes for setFen, so repeated setups do not allocate
+    private final byte[] fenSquares = new byte[64];
     
     public ChessBoard() {
-        board = new Piece[8][8];
-        moveHistory = new Stack<>();
         whiteTurn = true;
         initializeBoard();
     }
     
+    // Independent copy of another board, including its history, so the copy
+    // can be searched or played on from a different thread
+    public ChessBoard(ChessBoard other) {
+        copyFrom(other);
+    }
+    
+    public ChessBoard(String fen) {
+        setFen(fen);
+    }
+    
+    // Replaces this board's position and history with a copy of other's
+    void copyFrom(ChessBoard other) {
+        System.arraycopy(other.pieces, 0, pieces, 0, pieces.length);
+        System.arraycopy(other.occupied, 0, occupied, 0, occupied.length);
+        System.arraycopy(other.squares, 0, squares, 0, squares.length);
+        allOccupied = other.allOccupied;
+        whiteTurn = other.whiteTurn;
+        enPassantSquare = other.enPassantSquare;
+        whiteKingMoved = other.whiteKingMoved;
+        blackKingMoved = other.blackKingMoved;
+        whiteRookLeftMoved = other.whiteRookLeftMoved;
+        whiteRookRightMoved = other.whiteRookRightMoved;
+        blackRookLeftMoved = other.blackRookLeftMoved;
+        blackRookRightMoved = other.blackRookRightMoved;
+        zobristKey = other.zobristKey;
+        keyHistory = other.keyHistory.clone();
+        clockHistory = other.clockHistory.clone();
+        undoMoves = other.undoMoves.clone();
+        undoStates = other.undoStates.clone();
+        mapHistory = other.mapHistory.clone();
+        mapSaved = other.mapSaved.clone();
+        ply = other.ply;
+        halfmoveClock = other.halfmoveClock;
+        startFullmove = other.startFullmove;
+        positionChanged();
+    }
+    
     public void initializeBoard() {
         // Clear board
-        for (int i = 0; i < 8; i++) {
-            for (int j = 0; j < 8; j++) {
-                board[i][j] = null;
-            }
-        }
+        clearBoard();
         
         // Initialize black pieces (top of board - row 0 and 1)
-        board[0][0] = new Rook(false);
-        board[0][1] = new Knight(false);
-        board[0][2] = new Bishop(false);
-        board[0][3] = new Queen(false);
-        board[0][4] = new King(false);
-        board[0][5] = new Bishop(false);
-        board[0][6] = new Knight(false);
-        board[0][7] = new Rook(false);
-        
+        int[] backRank = {Bitboards.ROOK, Bitboards.KNIGHT, Bitboards.BISHOP, Bitboards.QUEEN,
+                          Bitboards.KING, Bitboards.BISHOP, Bitboards.KNIGHT, Bitboards.ROOK};
         for (int i = 0; i < 8; i++) {
-            board[1][i] = new Pawn(false);
+            putPiece(Bitboards.square(0, i), Bitboards.code(Bitboards.BLACK, backRank[i]));
+            putPiece(Bitboards.square(1, i), Bitboards.code(Bitboards.BLACK, Bitboards.PAWN));
         }
         
         // Initialize white pieces (bottom of board - row 6 and 7)
-        board[7][0] = new Rook(true);
-        board[7][1] = new Knight(true);
-        board[7][2] = new Bishop(true);
-        board[7][3] = new Queen(true);
-        board[7][4] = new King(true);
-        board[7][5] = new Bishop(true);
-        board[7][6] = new Knight(true);
-        board[7][7] = new Rook(true);
-        
         for (int i = 0; i < 8; i++) {
-            board[6][i] = new Pawn(true);
+            putPiece(Bitboards.square(7, i), Bitboards.code(Bitboards.WHITE, backRank[i]));
+            putPiece(Bitboards.square(6, i), Bitboards.code(Bitboards.WHITE, Bitboards.PAWN));
         }
         
         whiteTurn = true;
-        moveHistory.clear();
-        enPassantTarget = null;
+        enPassantSquare = -1;
         whiteKingMoved = false;
         blackKingMoved = false;
         whiteRookLeftMoved = false;
         whiteRookRightMoved = false;
         blackRookLeftMoved = false;
         blackRookRightMoved = false;
+        zobristKey ^= Zobrist.CASTLING[castlingRights()];
+        resetHistory();
+        startFullmove = 1;
+        positionChanged();
+    }
+    
+    private void clearBoard() {
+        Arrays.fill(pieces, 0L);
+        occupied[Bitboards.WHITE] = 0L;
+        occupied[Bitboards.BLACK] = 0L;
+        allOccupied = 0L;
+        Arrays.fill(squares, (byte) Bitboards.EMPTY);
+        zobristKey = 0L;
+    }
+    
+    // All board mutations go through these two so the bitboards stay in sync
+    private void putPiece(int sq, int code) {
+        long bit = 1L << sq;
+        pieces[code] |= bit;
+        occupied[Bitboards.colorOf(code)] |= bit;
+        allOccupied |= bit;
+        squares[sq] = (byte) code;
+        zobristKey ^= Zobrist.PIECE_SQUARE[code][sq];
+    }
+    
+    private int removePiece(int sq) {
+        int code = squares[sq];
+        if (code == Bitboards.EMPTY) return code;
+        long bit = 1L << sq;
+        pieces[code] &= ~bit;
+        occupied[Bitboards.colorOf(code)] &= ~bit;
+        allOccupied &= ~bit;
+        squares[sq] = (byte) Bitboards.EMPTY;
+        zobristKey ^= Zobrist.PIECE_SQUARE[code][sq];
+        return code;
     }
     
     public Piece getPiece(int row, int col) {
         if (isValidPosition(row, col)) {
-            return board[row][col];
+            int code = squares[Bitboards.square(row, col)];
+            return code == Bitboards.EMPTY ? null : PIECE_VIEWS[code];
         }
         return null;
     }
@@ -99,105 +203,400 @@ public class ChessBoard {
             return false;
         }
         
-        // Validate the move
-        if (!isValidMove(from, to)) {
+        // Validate the move; castling, en passant and promotion are all
+        // carried by the generated move, so makeMove handles them
+        int move = findMove(from, to, piece);
+        if (move == 0) {
             return false;
         }
         
-        // Store move for undo functionality
-        Piece capturedPiece = getPiece(to.row, to.col);
-        Move move = new Move(from, to, piece, capturedPiece);
+        makeMove(move);
+        return true;
+    }
+    
+    // Plays a move produced by generateMoves without validating it. Together
+    // with unmakeMove this is the fast path for search and perft: every bit
+    // of irreversible state goes on the per-ply undo stack.
+    public void makeMove(int move) {
+        int fromSq = Move.fromSquare(move);
+        int toSq = Move.toSquare(move);
+        int flags = Move.flags(move);
+        int code = Move.movedPiece(move);
+        int us = Bitboards.colorOf(code);
+        int captureSq = flags == Move.EN_PASSANT ? toSq + (us == Bitboards.WHITE ? 8 : -8) : toSq;
+        int captured = Move.capturedPiece(move);
+        
+        undoMoves[ply] = move;
+        undoStates[ply] = castlingRights() | ((enPassantSquare + 1) << 4);
+        saveAttackMaps();
+        
+        if (captured != Bitboards.EMPTY) {
+            removePiece(captureSq);
+        }
+        removePiece(fromSq);
+        putPiece(toSq, flags == Move.PROMOTION ? Bitboards.code(us, Move.promotionType(move)) : code);
         
-        // Handle special moves (castling, en passant)
-        handleSpecialMoves(from, to, piece);
+        if (flags == Move.CASTLE) {
+            boolean kingside = toSq > fromSq;
+            putPiece(kingside ? toSq - 1 : toSq + 1, removePiece(kingside ? toSq + 1 : toSq - 2));
+        }
         
-        // Execute the move
-        board[to.row][to.col] = piece;
-        board[from.row][from.col] = null;
-        piece.incrementMoveCount();
+        int oldRights = castlingRights();
+        if (Bitboards.typeOf(code) == Bitboards.KING) {
+            if (us == Bitboards.WHITE) whiteKingMoved = true; else blackKingMoved = true;
+        }
+        markCornerTouched(fromSq);
+        markCornerTouched(toSq);
+        zobristKey ^= Zobrist.CASTLING[oldRights] ^ Zobrist.CASTLING[castlingRights()];
         
-        // Check for pawn promotion
-        if (piece instanceof Pawn) {
-            if ((piece.isWhite() && to.row == 0) || (!piece.isWhite() && to.row == 7)) {
-                board[to.row][to.col] = new Queen(piece.isWhite());
-            }
+        setEnPassantSquare(-1);
+        if (flags == Move.DOUBLE_PUSH) {
+            setEnPassantTarget((fromSq + toSq) >>> 1, us);
         }
         
-        // Add move to history
-        moveHistory.push(move);
+        whiteTurn = !whiteTurn;
+        zobristKey ^= Zobrist.SIDE_TO_MOVE;
+        
+        // Pawn moves and captures can never be repeated
+        boolean irreversible = Bitboards.typeOf(code) == Bitboards.PAWN || captured != Bitboards.EMPTY;
+        recordPosition(irreversible ? 0 : halfmoveClock + 1);
+        cachedStatus = null;
+        mapsStale = true;
+    }
+    
+    // Takes back the last makeMove in O(1) from the undo stack
+    public void unmakeMove() {
+        int previous = ply - 1;
+        int move = undoMoves[previous];
+        int state = undoStates[previous];
+        int fromSq = Move.fromSquare(move);
+        int toSq = Move.toSquare(move);
+        int flags = Move.flags(move);
+        
+        int code = removePiece(toSq);
+        int us = Bitboards.colorOf(code);
+        putPiece(fromSq, flags == Move.PROMOTION ? Bitboards.code(us, Bitboards.PAWN) : code);
+        
+        int captured = Move.capturedPiece(move);
+        if (captured != Bitboards.EMPTY) {
+            putPiece(flags == Move.EN_PASSANT ? toSq + (us == Bitboards.WHITE ? 8 : -8) : toSq, captured);
+        }
+        if (flags == Move.CASTLE) {
+            boolean kingside = toSq > fromSq;
+            putPiece(kingside ? toSq + 1 : toSq - 2, removePiece(kingside ? toSq - 1 : toSq + 1));
+        }
         
-        // Switch turns
+        setCastlingRights(state & 0xF);
+        enPassantSquare = (state >>> 4) - 1;
         whiteTurn = !whiteTurn;
         
-        return true;
+        ply = previous;
+        halfmoveClock = clockHistory[ply];
+        zobristKey = keyHistory[ply];
+        cachedStatus = null;
+        restoreAttackMaps();
     }
     
-    private void handleSpecialMoves(Position from, Position to, Piece piece) {
-        // Track king and rook movements for castling eligibility
-        if (piece instanceof King) {
-            if (piece.isWhite()) {
-                whiteKingMoved = true;
-            } else {
-                blackKingMoved = true;
-            }
-            
-            // Handle castling move
-            if (Math.abs(to.col - from.col) == 2) {
-                if (to.col > from.col) { 
-                    // Kingside castling
-                    board[from.row][5] = board[from.row][7];
-                    board[from.row][7] = null;
-                } else { 
-                    // Queenside castling
-                    board[from.row][3] = board[from.row][0];
-                    board[from.row][0] = null;
-                }
+    private void markCornerTouched(int sq) {
+        if (sq == 56) whiteRookLeftMoved = true;
+        if (sq == 63) whiteRookRightMoved = true;
+        if (sq == 0) blackRookLeftMoved = true;
+        if (sq == 7) blackRookRightMoved = true;
+    }
+    
+    // Records the square a double push skipped, if the opponent can take there
+    private void setEnPassantTarget(int sq, int mover) {
+        if ((Bitboards.PAWN_ATTACKS[mover][sq] & pieces[Bitboards.code(1 - mover, Bitboards.PAWN)]) != 0) {
+            setEnPassantSquare(sq);
+        }
+    }
+    
+    private void setEnPassantSquare(int sq) {
+        zobristKey ^= enPassantKey(enPassantSquare) ^ enPassantKey(sq);
+        enPassantSquare = sq;
+    }
+    
+    private static long enPassantKey(int sq) {
+        return sq < 0 ? 0L : Zobrist.EN_PASSANT_FILE[sq & 7];
+    }
+    
+    private void setCastlingRights(int rights) {
+        whiteKingMoved = (rights & (Zobrist.WHITE_KINGSIDE | Zobrist.WHITE_QUEENSIDE)) == 0;
+        blackKingMoved = (rights & (Zobrist.BLACK_KINGSIDE | Zobrist.BLACK_QUEENSIDE)) == 0;
+        whiteRookRightMoved = (rights & Zobrist.WHITE_KINGSIDE) == 0;
+        whiteRookLeftMoved = (rights & Zobrist.WHITE_QUEENSIDE) == 0;
+        blackRookRightMoved = (rights & Zobrist.BLACK_KINGSIDE) == 0;
+        blackRookLeftMoved = (rights & Zobrist.BLACK_QUEENSIDE) == 0;
+    }
+    
+    int castlingRights() {
+        int rights = 0;
+        if (!whiteKingMoved && !whiteRookRightMoved) rights |= Zobrist.WHITE_KINGSIDE;
+        if (!whiteKingMoved && !whiteRookLeftMoved) rights |= Zobrist.WHITE_QUEENSIDE;
+        if (!blackKingMoved && !blackRookRightMoved) rights |= Zobrist.BLACK_KINGSIDE;
+        if (!blackKingMoved && !blackRookLeftMoved) rights |= Zobrist.BLACK_QUEENSIDE;
+        return rights;
+    }
+    
+    // Sets up an arbitrary position with an empty history. codes holds a
+    // piece code or Bitboards.EMPTY per square; an en passant square is only
+    // kept if a pawn can actually take there, as after a played double push.
+    void loadPosition(byte[] codes, boolean whiteToMove, int rights, int epSquare, int clock, int fullmove) {
+        clearBoard();
+        for (int sq = 0; sq < 64; sq++) {
+            if (codes[sq] != Bitboards.EMPTY) {
+                putPiece(sq, codes[sq]);
             }
         }
+        whiteTurn = whiteToMove;
+        setCastlingRights(rights);
+        enPassantSquare = -1;
+        if (epSquare >= 0) {
+            setEnPassantTarget(epSquare, whiteToMove ? Bitboards.BLACK : Bitboards.WHITE);
+        }
+        zobristKey = computeKey();
+        resetHistory();
+        halfmoveClock = clock;
+        clockHistory[0] = clock;
+        startFullmove = fullmove;
+        positionChanged();
+    }
+    
+    // Resets this board in place to the position described by a FEN string.
+    // The move clocks may be left off. Castling rights whose king or rook is
+    // not on its home square are dropped.
+    public void setFen(String fen) {
+        String[] fields = fen.trim().split("\\s+");
+        if (fields.length < 4 || fields.length > 6) {
+            throw new IllegalArgumentException("FEN needs 4 to 6 fields: " + fen);
+        }
         
-        // Track rook movements for castling eligibility
-        if (piece instanceof Rook) {
-            if (piece.isWhite()) {
-                if (from.col == 0) whiteRookLeftMoved = true;
-                if (from.col == 7) whiteRookRightMoved = true;
+        Arrays.fill(fenSquares, (byte) Bitboards.EMPTY);
+        int row = 0;
+        int col = 0;
+        for (int i = 0; i < fields[0].length(); i++) {
+            char c = fields[0].charAt(i);
+            if (c == '/') {
+                if (col != 8 || ++row > 7) throw new IllegalArgumentException("Bad FEN board: " + fen);
+                col = 0;
+            } else if (c >= '1' && c <= '8') {
+                col += c - '0';
             } else {
-                if (from.col == 0) blackRookLeftMoved = true;
-                if (from.col == 7) blackRookRightMoved = true;
+                int type = "pnbrqk".indexOf(Character.toLowerCase(c));
+                if (type < 0 || col > 7) throw new IllegalArgumentException("Bad FEN board: " + fen);
+                int color = Character.isUpperCase(c) ? Bitboards.WHITE : Bitboards.BLACK;
+                fenSquares[Bitboards.square(row, col++)] = (byte) Bitboards.code(color, type);
             }
+            if (col > 8) throw new IllegalArgumentException("Bad FEN board: " + fen);
         }
+        if (row != 7 || col != 8) throw new IllegalArgumentException("Bad FEN board: " + fen);
         
-        // Handle en passant capture
-        if (piece instanceof Pawn && enPassantTarget != null) {
-            if (to.equals(enPassantTarget)) {
-                int captureRow = piece.isWhite() ? to.row + 1 : to.row - 1;
-                board[captureRow][to.col] = null;
+        if (!fields[1].equals("w") && !fields[1].equals("b")) {
+            throw new IllegalArgumentException("Bad FEN side to move: " + fen);
+        }
+        boolean whiteToMove = fields[1].equals("w");
+        
+        int rights = 0;
+        if (!fields[2].equals("-")) {
+            for (int i = 0; i < fields[2].length(); i++) {
+                int right = "KQkq".indexOf(fields[2].charAt(i));
+                if (right < 0) throw new IllegalArgumentException("Bad FEN castling rights: " + fen);
+                rights |= 1 << right;
+            }
+        }
+        rights &= homeRights(fenSquares);
+        
+        int epSquare = -1;
+        if (!fields[3].equals("-")) {
+            String ep = fields[3];
+            int epRank = whiteToMove ? '6' : '3';
+            if (ep.length() != 2 || ep.charAt(0) < 'a' || ep.charAt(0) > 'h' || ep.charAt(1) != epRank) {
+                throw new IllegalArgumentException("Bad FEN en passant square: " + fen);
             }
+            epSquare = Bitboards.square('8' - ep.charAt(1), ep.charAt(0) - 'a');
         }
         
-        // Set en passant target for next move
-        enPassantTarget = null;
-        if (piece instanceof Pawn && Math.abs(to.row - from.row) == 2) {
-            enPassantTarget = new Position((from.row + to.row) / 2, from.col);
+        int clock;
+        int fullmove;
+        try {
+            clock = fields.length > 4 ? Integer.parseInt(fields[4]) : 0;
+            fullmove = fields.length > 5 ? Integer.parseInt(fields[5]) : 1;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Bad FEN move counters: " + fen, e);
         }
+        if (clock < 0 || fullmove < 1) {
+            throw new IllegalArgumentException("Bad FEN move counters: " + fen);
+        }
+        loadPosition(fenSquares, whiteToMove, rights, epSquare, clock, fullmove);
     }
     
-    public boolean isValidMove(Position from, Position to) {
-        Piece piece = getPiece(from.row, from.col);
-        if (piece == null) return false;
-        
-        // Can't capture own piece
-        Piece targetPiece = getPiece(to.row, to.col);
-        if (targetPiece != null && targetPiece.isWhite() == piece.isWhite()) {
-            return false;
+    // Castling rights still possible with kings and rooks where they stand
+    private static int homeRights(byte[] codes) {
+        int rights = 0;
+        int whiteRook = Bitboards.code(Bitboards.WHITE, Bitboards.ROOK);
+        int blackRook = Bitboards.code(Bitboards.BLACK, Bitboards.ROOK);
+        if (codes[60] == Bitboards.code(Bitboards.WHITE, Bitboards.KING)) {
+            if (codes[63] == whiteRook) rights |= Zobrist.WHITE_KINGSIDE;
+            if (codes[56] == whiteRook) rights |= Zobrist.WHITE_QUEENSIDE;
         }
-        
-        // Check if the move is valid according to piece's movement rules
-        if (!piece.isValidMove(from, to, this)) {
-            return false;
+        if (codes[4] == Bitboards.code(Bitboards.BLACK, Bitboards.KING)) {
+            if (codes[7] == blackRook) rights |= Zobrist.BLACK_KINGSIDE;
+            if (codes[0] == blackRook) rights |= Zobrist.BLACK_QUEENSIDE;
+        }
+        return rights;
+    }
+    
+    // FEN of the current position. The en passant square is only given when
+    // a capture there is actually possible.
+    public String getFen() {
+        StringBuilder fen = new StringBuilder(90);
+        for (int row = 0; row < 8; row++) {
+            int empty = 0;
+            for (int col = 0; col < 8; col++) {
+                int code = squares[Bitboards.square(row, col)];
+                if (code == Bitboards.EMPTY) {
+                    empty++;
+                    continue;
+                }
+                if (empty > 0) {
+                    fen.append(empty);
+                    empty = 0;
+                }
+                char letter = "pnbrqk".charAt(Bitboards.typeOf(code));
+                fen.append(Bitboards.colorOf(code) == Bitboards.WHITE ? Character.toUpperCase(letter) : letter);
+            }
+            if (empty > 0) fen.append(empty);
+            if (row < 7) fen.append('/');
         }
         
-        // Check if the move would put own king in check
-        return !wouldBeInCheck(from, to, piece.isWhite());
+        fen.append(whiteTurn ? " w " : " b ");
+        int rights = castlingRights();
+        if (rights == 0) {
+            fen.append('-');
+        } else {
+            for (int i = 0; i < 4; i++) {
+                if ((rights & (1 << i)) != 0) fen.append("KQkq".charAt(i));
+            }
+        }
+        fen.append(' ');
+        if (enPassantSquare < 0) {
+            fen.append('-');
+        } else {
+            fen.append((char) ('a' + (enPassantSquare & 7))).append((char) ('8' - (enPassantSquare >>> 3)));
+        }
+        fen.append(' ').append(halfmoveClock).append(' ').append(getFullmoveNumber());
+        return fen.toString();
+    }
+    
+    // Starts at 1 and goes up after each black move
+    public int getFullmoveNumber() {
+        return startFullmove + (ply + (whiteTurn == (ply % 2 == 0) ? 0 : 1)) / 2;
+    }
+    
+    private void resetHistory() {
+        ply = 0;
+        halfmoveClock = 0;
+        keyHistory[0] = zobristKey;
+        clockHistory[0] = 0;
+    }
+    
+    private void recordPosition(int clock) {
+        ply++;
+        if (ply == keyHistory.length) {
+            keyHistory = Arrays.copyOf(keyHistory, ply * 2);
+            clockHistory = Arrays.copyOf(clockHistory, ply * 2);
+            undoMoves = Arrays.copyOf(undoMoves, ply * 2);
+            undoStates = Arrays.copyOf(undoStates, ply * 2);
+            mapHistory = Arrays.copyOf(mapHistory, ply * 2 * MAP_WORDS);
+            mapSaved = Arrays.copyOf(mapSaved, ply * 2);
+        }
+        halfmoveClock = clock;
+        keyHistory[ply] = zobristKey;
+        clockHistory[ply] = clock;
+    }
+    
+    public long getZobristKey() {
+        return zobristKey;
+    }
+    
+    // Plies since the last capture or pawn move
+    public int getHalfmoveClock() {
+        return halfmoveClock;
+    }
+    
+    // Only positions since the last irreversible move can repeat, and only
+    // every second ply has the same side to move
+    public boolean isThreefoldRepetition() {
+        int repeats = 0;
+        for (int i = ply - 4; i >= ply - halfmoveClock && i >= 0; i -= 2) {
+            if (keyHistory[i] == zobristKey && ++repeats == 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Bare kings, or kings and a single bishop or knight: no mate is possible
+    public boolean isInsufficientMaterial() {
+        long minors = 0L;
+        for (int color = Bitboards.WHITE; color <= Bitboards.BLACK; color++) {
+            if ((pieces[Bitboards.code(color, Bitboards.PAWN)]
+                    | pieces[Bitboards.code(color, Bitboards.ROOK)]
+                    | pieces[Bitboards.code(color, Bitboards.QUEEN)]) != 0) {
+                return false;
+            }
+            minors |= pieces[Bitboards.code(color, Bitboards.KNIGHT)]
+                    | pieces[Bitboards.code(color, Bitboards.BISHOP)];
+        }
+        return Long.bitCount(minors) <= 1;
+    }
+    
+    // Any earlier occurrence since the last irreversible move; search treats
+    // a single repeat as a draw since the line can be repeated again
+    boolean isRepetition() {
+        for (int i = ply - 4; i >= ply - halfmoveClock && i >= 0; i -= 2) {
+            if (keyHistory[i] == zobristKey) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    // Full recomputation, used when a position is loaded rather than played
+    private long computeKey() {
+        long key = 0L;
+        for (int sq = 0; sq < 64; sq++) {
+            if (squares[sq] != Bitboards.EMPTY) {
+                key ^= Zobrist.PIECE_SQUARE[squares[sq]][sq];
+            }
+        }
+        key ^= Zobrist.CASTLING[castlingRights()] ^ enPassantKey(enPassantSquare);
+        return whiteTurn ? key : key ^ Zobrist.SIDE_TO_MOVE;
+    }
+    
+    public boolean isValidMove(Position from, Position to) {
+        Piece piece = getPiece(from.row, from.col);
+        return piece != null && findMove(from, to, piece) != 0;
+    }
+    
+    // Packed legal move from -> to (promoting to a queen), or 0
+    public int findMove(Position from, Position to) {
+        Piece piece = getPiece(from.row, from.col);
+        return piece == null ? 0 : findMove(from, to, piece);
+    }
+    
+    // The generated move from -> to, or 0. Only moves the generator can
+    // produce for this piece are valid; promotions come queen first.
+    private int findMove(Position from, Position to, Piece piece) {
+        if (!isValidPosition(to.row, to.col)) return 0;
+        int toSq = Bitboards.square(to.row, to.col);
+        int count = generatePieceMoves(from, piece);
+        for (int i = 0; i < count; i++) {
+            if (Move.toSquare(moveBuffer[i]) == toSq) {
+                return moveBuffer[i];
+            }
+        }
+        return 0;
     }
     
     public ArrayList<Position> getValidMoves(Position from) {
@@ -206,137 +605,289 @@ public class ChessBoard {
         
         if (piece == null) return validMoves;
         
-        // Check all possible positions on the board
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                Position to = new Position(row, col);
-                if (isValidMove(from, to)) {
-                    validMoves.add(to);
-                }
+        int count = generatePieceMoves(from, piece);
+        for (int i = 0; i < count; i++) {
+            int move = moveBuffer[i];
+            // Promotions are always to a queen here, so list each square once
+            if (Move.flags(move) == Move.PROMOTION && Move.promotionType(move) != Bitboards.QUEEN) {
+                continue;
             }
+            validMoves.add(Position.of(Move.toSquare(move)));
         }
         
         return validMoves;
     }
     
-    private boolean wouldBeInCheck(Position from, Position to, boolean isWhite) {
-        // Temporarily make the move to test if it results in check
-        Piece piece = board[from.row][from.col];
-        Piece captured = board[to.row][to.col];
-        
-        board[to.row][to.col] = piece;
-        board[from.row][from.col] = null;
+    private int generatePieceMoves(Position from, Piece piece) {
+        int color = piece.isWhite() ? Bitboards.WHITE : Bitboards.BLACK;
+        long fromMask = 1L << Bitboards.square(from.row, from.col);
+        return MoveGenerator.generateLegalMoves(this, color, fromMask, moveBuffer);
+    }
+    
+    // Fills moves with every legal move for the side to move and returns the count
+    public int generateMoves(int[] moves) {
+        return MoveGenerator.generateLegalMoves(this, moves);
+    }
+    
+    // Allocation-free getValidMoves: packed moves for the piece on from
+    public int getValidMoves(Position from, int[] moves) {
+        Piece piece = getPiece(from.row, from.col);
+        if (piece == null) return 0;
+        int color = piece.isWhite() ? Bitboards.WHITE : Bitboards.BLACK;
+        return MoveGenerator.generateLegalMoves(this, color, 1L << from.square(), moves);
+    }
+    
+    boolean isLegal(int move, int color) {
+        int fromSq = Move.fromSquare(move);
+        int toSq = Move.toSquare(move);
+        long king = pieces[Bitboards.code(color, Bitboards.KING)];
+        if (king == 0) return true;
+        int kingSq = Long.numberOfTrailingZeros(king);
+        
+        // En passant removes two pieces from the board, so test it the slow way
+        if (Move.flags(move) == Move.EN_PASSANT) {
+            long capturedMask = 1L << (toSq + (color == Bitboards.WHITE ? 8 : -8));
+            return !wouldBeInCheck(fromSq, toSq, capturedMask, color);
+        }
         
-        boolean inCheck = isInCheck(isWhite);
+        // The king may step anywhere the enemy does not attack; castling
+        // paths were already checked by the generator
+        if (fromSq == kingSq) {
+            return Move.flags(move) == Move.CASTLE || (attackMaps()[1 - color] & (1L << toSq)) == 0;
+        }
         
-        // Undo the temporary move
-        board[from.row][from.col] = piece;
-        board[to.row][to.col] = captured;
+        long toBit = 1L << toSq;
+        attackMaps();
+        long check = checkers[color];
+        if (check != 0) {
+            // Double check: only the king can move
+            if ((check & (check - 1)) != 0) return false;
+            
+            // Single check: capture the checker or block its ray
+            int checkerSq = Long.numberOfTrailingZeros(check);
+            if ((toBit & (check | Bitboards.BETWEEN[kingSq][checkerSq])) == 0) return false;
+        }
         
-        return inCheck;
+        // A pinned piece may only move along the line through its king
+        return (pinned[color] & (1L << fromSq)) == 0 || (Bitboards.LINE[kingSq][fromSq] & toBit) != 0;
     }
     
-    public boolean isInCheck(boolean isWhite) {
-        Position kingPos = findKing(isWhite);
-        if (kingPos == null) return false;
+    private boolean wouldBeInCheck(int fromSq, int toSq, long capturedMask, int color) {
+        // Test the move on the occupancy masks instead of playing it out
+        long king = pieces[Bitboards.code(color, Bitboards.KING)];
+        if (king == 0) return false;
         
-        // Check if any opponent piece can attack the king
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                Piece piece = board[row][col];
-                if (piece != null && piece.isWhite() != isWhite) {
-                    if (piece.isValidMove(new Position(row, col), kingPos, this)) {
-                        return true;
-                    }
-                }
-            }
+        long fromBit = 1L << fromSq;
+        long occupancy = (allOccupied & ~fromBit & ~capturedMask) | (1L << toSq);
+        int kingSq = (king & fromBit) != 0 ? toSq : Long.numberOfTrailingZeros(king);
+        
+        // A captured piece no longer attacks
+        return (attackersTo(kingSq, 1 - color, occupancy) & ~capturedMask) != 0;
+    }
+    
+    boolean isSquareAttacked(int sq, int byColor) {
+        return (attackMaps()[byColor] & (1L << sq)) != 0;
+    }
+    
+    private void positionChanged() {
+        cachedStatus = null;
+        mapsStale = true;
+    }
+    
+    // attackedBy, rebuilding all three maps first if a move made them stale
+    private long[] attackMaps() {
+        if (mapsStale) {
+            updateAttackMaps();
+            mapsStale = false;
         }
-        return false;
+        return attackedBy;
     }
     
-    public boolean isCheckmate(boolean isWhite) {
-        // Must be in check to be checkmate
-        if (!isInCheck(isWhite)) return false;
-        
-        // Check if any move can get out of check
-        for (int fromRow = 0; fromRow < 8; fromRow++) {
-            for (int fromCol = 0; fromCol < 8; fromCol++) {
-                Piece piece = board[fromRow][fromCol];
-                if (piece != null && piece.isWhite() == isWhite) {
-                    for (int toRow = 0; toRow < 8; toRow++) {
-                        for (int toCol = 0; toCol < 8; toCol++) {
-                            Position from = new Position(fromRow, fromCol);
-                            Position to = new Position(toRow, toCol);
-                            if (isValidMove(from, to)) {
-                                return false; // Found a legal move, not checkmate
-                            }
-                        }
-                    }
-                }
-            }
+    // Keeps the maps of the position a move is made from, if they are current
+    private void saveAttackMaps() {
+        mapSaved[ply] = !mapsStale;
+        if (!mapsStale) {
+            int base = ply * MAP_WORDS;
+            mapHistory[base] = attackedBy[0];
+            mapHistory[base + 1] = attackedBy[1];
+            mapHistory[base + 2] = checkers[0];
+            mapHistory[base + 3] = checkers[1];
+            mapHistory[base + 4] = pinned[0];
+            mapHistory[base + 5] = pinned[1];
         }
-        return true; // No legal moves available, it's checkmate
     }
     
-    public boolean isStalemate(boolean isWhite) {
-        // Must NOT be in check to be stalemate
-        if (isInCheck(isWhite)) return false;
-        
-        // Check if any legal move exists
-        for (int fromRow = 0; fromRow < 8; fromRow++) {
-            for (int fromCol = 0; fromCol < 8; fromCol++) {
-                Piece piece = board[fromRow][fromCol];
-                if (piece != null && piece.isWhite() == isWhite) {
-                    for (int toRow = 0; toRow < 8; toRow++) {
-                        for (int toCol = 0; toCol < 8; toCol++) {
-                            Position from = new Position(fromRow, fromCol);
-                            Position to = new Position(toRow, toCol);
-                            if (isValidMove(from, to)) {
-                                return false; // Found a legal move, not stalemate
-                            }
-                        }
-                    }
+    private void restoreAttackMaps() {
+        mapsStale = !mapSaved[ply];
+        if (!mapsStale) {
+            int base = ply * MAP_WORDS;
+            attackedBy[0] = mapHistory[base];
+            attackedBy[1] = mapHistory[base + 1];
+            checkers[0] = mapHistory[base + 2];
+            checkers[1] = mapHistory[base + 3];
+            pinned[0] = mapHistory[base + 4];
+            pinned[1] = mapHistory[base + 5];
+        }
+    }
+    
+    private void updateAttackMaps() {
+        for (int color = Bitboards.WHITE; color <= Bitboards.BLACK; color++) {
+            int them = 1 - color;
+            attackedBy[them] = computeAttacks(them, allOccupied & ~pieces[Bitboards.code(color, Bitboards.KING)]);
+            
+            long king = pieces[Bitboards.code(color, Bitboards.KING)];
+            if (king == 0) {
+                checkers[color] = 0L;
+                pinned[color] = 0L;
+                continue;
+            }
+            int kingSq = Long.numberOfTrailingZeros(king);
+            checkers[color] = attackersTo(kingSq, them, allOccupied);
+            
+            // Enemy sliders lined up with the king, pinning a lone piece of ours
+            int offset = Bitboards.code(them, Bitboards.PAWN);
+            long queens = pieces[offset + Bitboards.QUEEN];
+            long snipers = (Bitboards.rookAttacks(kingSq, 0L) & (pieces[offset + Bitboards.ROOK] | queens))
+                         | (Bitboards.bishopAttacks(kingSq, 0L) & (pieces[offset + Bitboards.BISHOP] | queens));
+            long pins = 0L;
+            for (; snipers != 0; snipers &= snipers - 1) {
+                long between = Bitboards.BETWEEN[kingSq][Long.numberOfTrailingZeros(snipers)] & allOccupied;
+                if (between != 0 && (between & (between - 1)) == 0) {
+                    pins |= between & occupied[color];
                 }
             }
+            pinned[color] = pins;
         }
-        return true; // No legal moves but not in check, it's stalemate
     }
     
-    private Position findKing(boolean isWhite) {
-        for (int row = 0; row < 8; row++) {
-            for (int col = 0; col < 8; col++) {
-                Piece piece = board[row][col];
-                if (piece instanceof King && piece.isWhite() == isWhite) {
-                    return new Position(row, col);
-                }
+    private long computeAttacks(int color, long occupancy) {
+        int offset = Bitboards.code(color, Bitboards.PAWN);
+        long attacks = Bitboards.pawnAttacks(color, pieces[offset]);
+        for (long knights = pieces[offset + Bitboards.KNIGHT]; knights != 0; knights &= knights - 1) {
+            attacks |= Bitboards.KNIGHT_ATTACKS[Long.numberOfTrailingZeros(knights)];
+        }
+        long queens = pieces[offset + Bitboards.QUEEN];
+        for (long diagonal = pieces[offset + Bitboards.BISHOP] | queens; diagonal != 0; diagonal &= diagonal - 1) {
+            attacks |= Bitboards.bishopAttacks(Long.numberOfTrailingZeros(diagonal), occupancy);
+        }
+        for (long straight = pieces[offset + Bitboards.ROOK] | queens; straight != 0; straight &= straight - 1) {
+            attacks |= Bitboards.rookAttacks(Long.numberOfTrailingZeros(straight), occupancy);
+        }
+        long king = pieces[offset + Bitboards.KING];
+        if (king != 0) {
+            attacks |= Bitboards.KING_ATTACKS[Long.numberOfTrailingZeros(king)];
+        }
+        return attacks;
+    }
+    
+    // Pieces of the given color attacking sq, with sliders blocked by occupancy
+    private long attackersTo(int sq, int byColor, long occupancy) {
+        int offset = Bitboards.code(byColor, Bitboards.PAWN);
+        long queens = pieces[offset + Bitboards.QUEEN];
+        return (Bitboards.PAWN_ATTACKS[1 - byColor][sq] & pieces[offset + Bitboards.PAWN])
+             | (Bitboards.KNIGHT_ATTACKS[sq] & pieces[offset + Bitboards.KNIGHT])
+             | (Bitboards.KING_ATTACKS[sq] & pieces[offset + Bitboards.KING])
+             | (Bitboards.bishopAttacks(sq, occupancy) & (pieces[offset + Bitboards.BISHOP] | queens))
+             | (Bitboards.rookAttacks(sq, occupancy) & (pieces[offset + Bitboards.ROOK] | queens));
+    }
+    
+    public boolean isInCheck(boolean isWhite) {
+        attackMaps();
+        return checkers[isWhite ? Bitboards.WHITE : Bitboards.BLACK] != 0;
+    }
+    
+    // Check, mate and stalemate for the side to move in one pass that stops
+    // at the first legal reply; cached until the next move or undo
+    public GameStatus evaluateStatus() {
+        if (cachedStatus == null) {
+            int color = sideToMove();
+            attackMaps();
+            boolean inCheck = checkers[color] != 0;
+            if (MoveGenerator.hasLegalMove(this, color, moveBuffer)) {
+                cachedStatus = inCheck ? GameStatus.CHECK : GameStatus.IN_PROGRESS;
+            } else {
+                cachedStatus = inCheck ? GameStatus.CHECKMATE : GameStatus.STALEMATE;
             }
         }
-        return null;
+        return cachedStatus;
     }
     
-    public boolean undoLastMove() {
-        if (moveHistory.isEmpty()) return false;
-        
-        Move lastMove = moveHistory.pop();
-        
-        // Restore the piece to its original position
-        board[lastMove.from.row][lastMove.from.col] = lastMove.piece;
-        board[lastMove.to.row][lastMove.to.col] = lastMove.captured;
+    public boolean isCheckmate(boolean isWhite) {
+        if (isWhite == whiteTurn) return evaluateStatus() == GameStatus.CHECKMATE;
         
-        // Decrement move count
-        lastMove.piece.decrementMoveCount();
+        // Must be in check to be checkmate, with no legal moves available
+        return isInCheck(isWhite) && !hasLegalMove(isWhite);
+    }
+    
+    public boolean isStalemate(boolean isWhite) {
+        if (isWhite == whiteTurn) return evaluateStatus() == GameStatus.STALEMATE;
         
-        // Switch turns back
-        whiteTurn = !whiteTurn;
+        // Must NOT be in check to be stalemate, with no legal moves available
+        return !isInCheck(isWhite) && !hasLegalMove(isWhite);
+    }
+    
+    private boolean hasLegalMove(boolean isWhite) {
+        return MoveGenerator.hasLegalMove(this, isWhite ? Bitboards.WHITE : Bitboards.BLACK, moveBuffer);
+    }
+    
+    // Raw state for MoveGenerator
+    int sideToMove() {
+        return whiteTurn ? Bitboards.WHITE : Bitboards.BLACK;
+    }
+    
+    long pieces(int code) {
+        return pieces[code];
+    }
+    
+    long occupied(int color) {
+        return occupied[color];
+    }
+    
+    long allOccupied() {
+        return allOccupied;
+    }
+    
+    int pieceAt(int sq) {
+        return squares[sq];
+    }
+    
+    int enPassantSquare() {
+        return enPassantSquare;
+    }
+    
+    public boolean undoLastMove() {
+        if (ply == 0) return false;
         
+        // Restores pieces, castling rights, en passant square and clocks
+        unmakeMove();
         return true;
     }
     
+    // Number of moves that can be undone
+    public int getPly() {
+        return ply;
+    }
+    
+    // The move that led to the current position, or null at the start
+    public Move getLastMove() {
+        if (ply == 0) return null;
+        int move = undoMoves[ply - 1];
+        int captured = Move.capturedPiece(move);
+        return new Move(Position.of(Move.fromSquare(move)), Position.of(Move.toSquare(move)),
+                        PIECE_VIEWS[Move.movedPiece(move)],
+                        captured == Bitboards.EMPTY ? null : PIECE_VIEWS[captured], move);
+    }
+    
+    // Move played from the position at the given ply, 0 <= index < getPly()
+    int moveAt(int index) {
+        return undoMoves[index];
+    }
+    
+    // Saves the starting position and every move since, so undo still
+    // works after loading; see GameCodec for the file layout
     public boolean saveGame(String filename) {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filename))) {
-            oos.writeObject(board);
-            oos.writeBoolean(whiteTurn);
-            oos.writeObject(moveHistory);
+        try {
+            GameCodec.write(this, Paths.get(filename));
             return true;
         } catch (IOException e) {
             e.printStackTrace();
@@ -344,14 +895,14 @@ public class ChessBoard {
         }
     }
     
-    @SuppressWarnings("unchecked")
     public boolean loadGame(String filename) {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filename))) {
-            board = (Piece[][]) ois.readObject();
-            whiteTurn = ois.readBoolean();
-            moveHistory = (Stack<Move>) ois.readObject();
+        try {
+            // Decode into a scratch board so a bad file leaves this one untouched
+            ChessBoard loaded = new ChessBoard();
+            GameCodec.read(Paths.get(filename), loaded);
+            copyFrom(loaded);
             return true;
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             e.printStackTrace();
             return false;
         }
@@ -363,6 +914,12 @@ public class ChessBoard {
         if (!isWhite && blackKingMoved) return false;
         
         int row = isWhite ? 7 : 0;
+        int rook = Bitboards.code(isWhite ? Bitboards.WHITE : Bitboards.BLACK, Bitboards.ROOK);
+        
+        // The rook must still be standing in its corner
+        if ((pieces[rook] & (1L << Bitboards.square(row, kingside ? 7 : 0))) == 0) {
+            return false;
+        }
         
         if (kingside) {
             // Check if right rook has moved
@@ -370,14 +927,22 @@ public class ChessBoard {
                 return false;
             }
             // Check if squares between king and rook are empty
-            return board[row][5] == null && board[row][6] == null;
+            return (allOccupied & squareMask(row, 5, 6)) == 0;
         } else {
             // Check if left rook has moved
             if ((isWhite && whiteRookLeftMoved) || (!isWhite && blackRookLeftMoved)) {
                 return false;
             }
             // Check if squares between king and rook are empty
-            return board[row][1] == null && board[row][2] == null && board[row][3] == null;
+            return (allOccupied & squareMask(row, 1, 3)) == 0;
+        }
+    }
+    
+    private static long squareMask(int row, int fromCol, int toCol) {
+        long mask = 0L;
+        for (int col = fromCol; col <= toCol; col++) {
+            mask |= 1L << Bitboards.square(row, col);
         }
+        return mask;
     }
 }
\ No newline at end of file
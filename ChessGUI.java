@@ -6,16 +6,25 @@ import java.awt.event.*;
 import java.util.ArrayList;
 
 public class ChessGUI extends JFrame {
+    private static final long HINT_MILLIS = 2000;
+    
     private ChessBoard board;
     private BoardPanel boardPanel;
     private JPanel infoPanel;
     private JLabel statusLabel;
     private JLabel turnLabel;
-    private JTextArea moveHistory;
+    private JLabel analysisLabel;
+    private MoveHistoryModel historyModel;
+    private JList<String> moveHistory;
+    private boolean showingPly; // Set while the list selection follows the board
     private JButton newGameButton;
     private JButton undoButton;
     private JButton saveButton;
     private JButton loadButton;
+    private JButton hintButton;
+    private JCheckBox liveAnalysisBox;
+    private AnalysisService analysis;
+    private boolean hintPending; // Set while "Thinking..." waits for a hint
      
     public ChessGUI() {
         setTitle("SmartChess - Intelligent Chess Management System");
@@ -24,6 +33,7 @@ public class ChessGUI extends JFrame {
         
         // Initialize chess board
         board = new ChessBoard();
+        analysis = new AnalysisService(1, SwingUtilities::invokeLater);
         
         // Create components
         createBoardPanel();
@@ -68,10 +78,17 @@ public class ChessGUI extends JFrame {
         statusLabel.setFont(new Font("Arial", Font.PLAIN, 14));
         statusLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
         infoPanel.add(statusLabel);
+        infoPanel.add(Box.createRigidArea(new Dimension(0, 10)));
+        
+        // Engine output, filled in from the analysis service
+        analysisLabel = new JLabel(" ");
+        analysisLabel.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        analysisLabel.setAlignmentX(Component.CENTER_ALIGNMENT);
+        infoPanel.add(analysisLabel);
         infoPanel.add(Box.createRigidArea(new Dimension(0, 20)));
         
         // Buttons panel
-        JPanel buttonPanel = new JPanel(new GridLayout(4, 1, 5, 5));
+        JPanel buttonPanel = new JPanel(new GridLayout(6, 1, 5, 5));
         
         newGameButton = new JButton("New Game");
         newGameButton.addActionListener(e -> newGame());
@@ -89,6 +106,14 @@ public class ChessGUI extends JFrame {
         loadButton.addActionListener(e -> loadGame());
         buttonPanel.add(loadButton);
         
+        hintButton = new JButton("Hint");
+        hintButton.addActionListener(e -> showHint());
+        buttonPanel.add(hintButton);
+        
+        liveAnalysisBox = new JCheckBox("Live Analysis");
+        liveAnalysisBox.addActionListener(e -> refreshAnalysis());
+        buttonPanel.add(liveAnalysisBox);
+        
         infoPanel.add(buttonPanel);
         infoPanel.add(Box.createRigidArea(new Dimension(0, 20)));
         
@@ -99,9 +124,19 @@ public class ChessGUI extends JFrame {
         infoPanel.add(historyLabel);
         infoPanel.add(Box.createRigidArea(new Dimension(0, 5)));
         
-        moveHistory = new JTextArea(20, 20);
-        moveHistory.setEditable(false);
+        // A prototype row gives every cell the same height, so only the
+        // visible rows are ever measured and rendered
+        historyModel = new MoveHistoryModel();
+        moveHistory = new JList<>(historyModel);
         moveHistory.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        moveHistory.setPrototypeCellValue("888... Qxh8=Q+");
+        moveHistory.setVisibleRowCount(20);
+        moveHistory.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        moveHistory.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting() && !showingPly && moveHistory.getSelectedIndex() >= 0) {
+                seekTo(moveHistory.getSelectedIndex() + 1);
+            }
+        });
         JScrollPane scrollPane = new JScrollPane(moveHistory);
         scrollPane.setAlignmentX(Component.LEFT_ALIGNMENT);
         infoPanel.add(scrollPane);
@@ -136,13 +171,125 @@ public class ChessGUI extends JFrame {
         statusLabel.setText(message);
     }
     
+    // Called after every move, undo, load and new game
     public void updateTurn() {
         turnLabel.setText("Turn: " + (board.isWhiteTurn() ? "White" : "Black"));
+        refreshAnalysis();
+    }
+    
+    // Restarts live analysis for the current position, or stops whatever
+    // analysis belonged to the previous one
+    private void refreshAnalysis() {
+        // Either branch ends a running hint, so take its message down too
+        if (hintPending) {
+            hintPending = false;
+            updateStatus(" ");
+        }
+        if (liveAnalysisBox.isSelected()) {
+            analysis.analyze(board, SearchLimits.depth(SearchLimits.MAX_DEPTH), new AnalysisView(false));
+        } else {
+            analysis.cancel();
+            analysisLabel.setText(" ");
+        }
+    }
+    
+    private void showHint() {
+        hintPending = true;
+        updateStatus("Thinking...");
+        analysis.analyze(board, SearchLimits.time(HINT_MILLIS), new AnalysisView(true));
+    }
+    
+    // Shows analysis results; the service only delivers them while the
+    // position they belong to is still on the board
+    private class AnalysisView implements AnalysisService.Listener {
+        private final boolean hint;
+        
+        AnalysisView(boolean hint) {
+            this.hint = hint;
+        }
+        
+        @Override
+        public void positionAnalyzed(GameStatus status, int[] legalMoves) {
+            analysisLabel.setText(switch (status) {
+                case CHECKMATE -> "Checkmate";
+                case STALEMATE -> "Stalemate";
+                case CHECK -> "Check, " + legalMoves.length + " legal moves";
+                default -> legalMoves.length + " legal moves";
+            });
+            // No search follows when the game is over, so no finished() either
+            if (hint && legalMoves.length == 0) {
+                endHint("No moves to hint");
+            }
+        }
+        
+        @Override
+        public void progress(SearchResult result) {
+            analysisLabel.setText(describe(result));
+        }
+        
+        @Override
+        public void finished(SearchResult result) {
+            analysisLabel.setText(describe(result));
+            if (hint) {
+                endHint(result.hasMove() ? "Hint: " + San.toSan(board, result.getBestMove()) : " ");
+            }
+        }
+        
+        // The hint replaced the live analysis request; start it again
+        private void endHint(String message) {
+            hintPending = false;
+            updateStatus(message);
+            if (liveAnalysisBox.isSelected()) {
+                refreshAnalysis();
+            }
+        }
+        
+        private String describe(SearchResult result) {
+            if (!result.hasMove()) return " ";
+            String move = San.toSan(board, result.getBestMove());
+            if (result.isBookMove()) return "Book: " + move;
+            // Scores from White's point of view, mates as "#+3" or "#-2"
+            int white = board.isWhiteTurn() ? result.getScore() : -result.getScore();
+            String score = result.isMateScore()
+                    ? (white > 0 ? "#+" : "#-") + (Search.MATE - Math.abs(white) + 1) / 2
+                    : String.format("%+.2f", white / 100.0);
+            return "Depth " + result.getDepth() + ": " + move + " " + score;
+        }
     }
     
-    public void addMoveToHistory(String move) {
-        moveHistory.append(move + "\n");
-        moveHistory.setCaretPosition(moveHistory.getDocument().getLength());
+    // Brings the history list up to date with the board after a move
+    public void updateHistory() {
+        historyModel.sync(board);
+        showCurrentPly();
+    }
+    
+    // Selects the row of the last move played, without seeking
+    private void showCurrentPly() {
+        showingPly = true;
+        try {
+            int row = board.getPly() - 1;
+            if (row >= 0) {
+                moveHistory.setSelectedIndex(row);
+                moveHistory.ensureIndexIsVisible(row);
+            } else {
+                moveHistory.clearSelection();
+            }
+        } finally {
+            showingPly = false;
+        }
+    }
+    
+    // Undoes or replays moves from the history list until the board is at ply
+    private void seekTo(int ply) {
+        while (board.getPly() > ply) {
+            board.unmakeMove();
+        }
+        while (board.getPly() < ply && board.getPly() < historyModel.getSize()) {
+            board.makeMove(historyModel.getMove(board.getPly()));
+        }
+        boardPanel.refresh();
+        updateTurn();
+        updateStatus(ply == 0 ? "Start position" : "After " + historyModel.getElementAt(ply - 1));
     }
     
     private void newGame() {
@@ -152,7 +299,7 @@ public class ChessGUI extends JFrame {
         if (choice == JOptionPane.YES_OPTION) {
             board.initializeBoard();
             boardPanel.refresh();
-            moveHistory.setText("");
+            historyModel.clear();
             updateTurn();
             updateStatus("New game started");
         }
@@ -163,12 +310,8 @@ public class ChessGUI extends JFrame {
             boardPanel.refresh();
             updateTurn();
             updateStatus("Move undone");
-            // Remove last line from history
-            String text = moveHistory.getText();
-            int lastNewline = text.lastIndexOf('\n', text.length() - 2);
-            if (lastNewline > 0) {
-                moveHistory.setText(text.substring(0, lastNewline + 1));
-            }
+            historyModel.truncate(board.getPly());
+            showCurrentPly();
         } else {
             JOptionPane.showMessageDialog(this, "No moves to undo!");
         }
@@ -196,6 +339,8 @@ public class ChessGUI extends JFrame {
             String filename = fileChooser.getSelectedFile().getAbsolutePath();
             if (board.loadGame(filename)) {
                 boardPanel.refresh();
+                historyModel.clear();
+                updateHistory();
                 updateTurn();
                 JOptionPane.showMessageDialog(this, "Game loaded successfully!");
             } else {
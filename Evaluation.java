@@ -0,0 +1,91 @@
+package smartchess;
+
+// Evaluation.java - Static evaluation: material plus piece-square tables
+//
+// Tables are laid out from White's side, a8 first, matching the board's
+// square numbering; Black reads them mirrored (sq ^ 56).
+final class Evaluation {
+    static final int[] PIECE_VALUES = {100, 320, 330, 500, 900, 0};
+    
+    private static final int[][] PIECE_SQUARE = {
+        { // Pawn
+             0,  0,  0,  0,  0,  0,  0,  0,
+            50, 50, 50, 50, 50, 50, 50, 50,
+            10, 10, 20, 30, 30, 20, 10, 10,
+             5,  5, 10, 25, 25, 10,  5,  5,
+             0,  0,  0, 20, 20,  0,  0,  0,
+             5, -5,-10,  0,  0,-10, -5,  5,
+             5, 10, 10,-20,-20, 10, 10,  5,
+             0,  0,  0,  0,  0,  0,  0,  0
+        },
+        { // Knight
+            -50,-40,-30,-30,-30,-30,-40,-50,
+            -40,-20,  0,  0,  0,  0,-20,-40,
+            -30,  0, 10, 15, 15, 10,  0,-30,
+            -30,  5, 15, 20, 20, 15,  5,-30,
+            -30,  0, 15, 20, 20, 15,  0,-30,
+            -30,  5, 10, 15, 15, 10,  5,-30,
+            -40,-20,  0,  5,  5,  0,-20,-40,
+            -50,-40,-30,-30,-30,-30,-40,-50
+        },
+        { // Bishop
+            -20,-10,-10,-10,-10,-10,-10,-20,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -10,  0,  5, 10, 10,  5,  0,-10,
+            -10,  5,  5, 10, 10,  5,  5,-10,
+            -10,  0, 10, 10, 10, 10,  0,-10,
+            -10, 10, 10, 10, 10, 10, 10,-10,
+            -10,  5,  0,  0,  0,  0,  5,-10,
+            -20,-10,-10,-10,-10,-10,-10,-20
+        },
+        { // Rook
+             0,  0,  0,  0,  0,  0,  0,  0,
+             5, 10, 10, 10, 10, 10, 10,  5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+            -5,  0,  0,  0,  0,  0,  0, -5,
+             0,  0,  0,  5,  5,  0,  0,  0
+        },
+        { // Queen
+            -20,-10,-10, -5, -5,-10,-10,-20,
+            -10,  0,  0,  0,  0,  0,  0,-10,
+            -10,  0,  5,  5,  5,  5,  0,-10,
+             -5,  0,  5,  5,  5,  5,  0, -5,
+              0,  0,  5,  5,  5,  5,  0, -5,
+            -10,  5,  5,  5,  5,  5,  0,-10,
+            -10,  0,  5,  0,  0,  0,  0,-10,
+            -20,-10,-10, -5, -5,-10,-10,-20
+        },
+        { // King, middlegame shelter
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -30,-40,-40,-50,-50,-40,-40,-30,
+            -20,-30,-30,-40,-40,-30,-30,-20,
+            -10,-20,-20,-20,-20,-20,-20,-10,
+             20, 20,  0,  0,  0,  0, 20, 20,
+             20, 30, 10,  0,  0, 10, 30, 20
+        }
+    };
+    
+    private Evaluation() {
+    }
+    
+    // Score in centipawns from the side to move's point of view
+    public static int evaluate(ChessBoard board) {
+        int score = 0;
+        for (int type = Bitboards.PAWN; type <= Bitboards.KING; type++) {
+            int[] table = PIECE_SQUARE[type];
+            int value = PIECE_VALUES[type];
+            for (long white = board.pieces(Bitboards.code(Bitboards.WHITE, type)); white != 0; white &= white - 1) {
+                score += value + table[Long.numberOfTrailingZeros(white)];
+            }
+            for (long black = board.pieces(Bitboards.code(Bitboards.BLACK, type)); black != 0; black &= black - 1) {
+                score -= value + table[Long.numberOfTrailingZeros(black) ^ 56];
+            }
+        }
+        return board.sideToMove() == Bitboards.WHITE ? score : -score;
+    }
+}
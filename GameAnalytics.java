@@ -0,0 +1,375 @@
+package smartchess;
+
+// GameAnalytics.java - Parallel statistics over stored games
+//
+// Games are streamed from GameArchive files, PGN files or directories of
+// saved games and handed in batches to a fixed pool. The queue in front of
+// the pool is bounded and a full queue makes the reading thread replay the
+// batch itself, so memory stays flat however many games there are. Every
+// worker replays games into its own board and counts into its own Stats;
+// the per-thread counts are merged once at the end.
+//
+// For each game the history is walked backwards from the final position,
+// which gives captures (from the packed moves), checks and the opening
+// without a second replay.
+//
+// Usage: GameAnalytics [--archive file]... [--pgn file]... [--dir directory]...
+//                      [--threads N] [--openings N]
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public final class GameAnalytics {
+    private static final int BATCH_GAMES = 256;
+    private static final int QUEUED_BATCHES_PER_THREAD = 4;
+    private static final int OPENING_PLIES = 4;
+    // Distinct openings kept per thread; rarer ones are counted as "other"
+    private static final int MAX_OPENINGS = 50_000;
+    private static final int LENGTH_BUCKET = 10;
+    private static final int LENGTH_BUCKETS = 31; // The last one holds 300 plies and more
+    
+    public enum Termination {
+        CHECKMATE, STALEMATE, THREEFOLD_REPETITION, FIFTY_MOVE_RULE, INSUFFICIENT_MATERIAL, UNFINISHED
+    }
+    
+    private final ThreadPoolExecutor pool;
+    private final ConcurrentLinkedQueue<Stats> allStats = new ConcurrentLinkedQueue<>();
+    private final List<GameArchive> archives = new ArrayList<>(); // Closed by finish()
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(() -> {
+        Worker worker = new Worker();
+        allStats.add(worker.stats);
+        return worker;
+    });
+    
+    public GameAnalytics(int threads) {
+        int size = Math.max(1, threads);
+        this.pool = new ThreadPoolExecutor(size, size, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(size * QUEUED_BATCHES_PER_THREAD),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+    
+    public void addArchive(Path path) throws IOException {
+        GameArchive archive = GameArchive.open(path);
+        long count = archive.size();
+        for (long first = 0; first < count; first += BATCH_GAMES) {
+            long from = first;
+            long to = Math.min(count, first + BATCH_GAMES);
+            pool.execute(() -> {
+                Worker worker = workers.get();
+                for (long id = from; id < to; id++) {
+                    try {
+                        archive.replay(id, worker.board);
+                        worker.stats.add(worker.board, null);
+                    } catch (IOException e) {
+                        worker.stats.errors++;
+                    }
+                }
+            });
+        }
+        archives.add(archive);
+    }
+    
+    public void addPgn(Path path) throws IOException {
+        // The reader parses in parallel itself; replays are batched onto the pool
+        List<PgnGame> batch = new ArrayList<>(BATCH_GAMES);
+        PgnReader.read(path, pool.getCorePoolSize(), game -> {
+            batch.add(game);
+            if (batch.size() == BATCH_GAMES) {
+                submitPgn(new ArrayList<>(batch));
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            submitPgn(batch);
+        }
+    }
+    
+    private void submitPgn(List<PgnGame> games) {
+        pool.execute(() -> {
+            Worker worker = workers.get();
+            for (PgnGame game : games) {
+                if (game.hasError()) {
+                    worker.stats.errors++;
+                    continue;
+                }
+                try {
+                    game.replay(worker.board);
+                    worker.stats.add(worker.board, game.getResult());
+                } catch (IllegalArgumentException | IllegalStateException e) {
+                    worker.stats.errors++;
+                }
+            }
+        });
+    }
+    
+    // Every regular file in the directory saved with ChessBoard.saveGame
+    public void addSavedGames(Path directory) throws IOException {
+        List<Path> batch = new ArrayList<>(BATCH_GAMES);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, Files::isRegularFile)) {
+            for (Path file : files) {
+                batch.add(file);
+                if (batch.size() == BATCH_GAMES) {
+                    submitFiles(batch);
+                    batch = new ArrayList<>(BATCH_GAMES);
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            submitFiles(batch);
+        }
+    }
+    
+    private void submitFiles(List<Path> files) {
+        pool.execute(() -> {
+            Worker worker = workers.get();
+            for (Path file : files) {
+                try {
+                    GameCodec.read(file, worker.board);
+                    worker.stats.add(worker.board, null);
+                } catch (IOException e) {
+                    worker.stats.errors++;
+                }
+            }
+        });
+    }
+    
+    // Waits for every queued game, closes the archives and merges the counts
+    public Stats finish() throws IOException, InterruptedException {
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+        for (GameArchive archive : archives) {
+            archive.close();
+        }
+        Stats total = new Stats();
+        for (Stats stats : allStats) {
+            total.merge(stats);
+        }
+        return total;
+    }
+    
+    private static final class Worker {
+        final ChessBoard board = new ChessBoard();
+        final Stats stats = new Stats();
+    }
+    
+    // Counts over any number of games; one instance per thread, merged at the end
+    public static final class Stats {
+        long games;
+        long errors;
+        long plies;
+        long checks;
+        long whiteWins;
+        long blackWins;
+        long draws;
+        long unknownResults;
+        final long[][] captures = new long[6][6]; // [capturing type][captured type]
+        final long[] lengths = new long[LENGTH_BUCKETS];
+        final long[] terminations = new long[Termination.values().length];
+        final Map<String, long[]> openings = new HashMap<>();
+        long otherOpenings;
+        private final String[] opening = new String[OPENING_PLIES];
+        private final int[] buffer = new int[MoveGenerator.MAX_MOVES];
+        
+        // Counts one finished game; board is left at the game's first position.
+        // result is the PGN result, or null to derive it from the final position.
+        void add(ChessBoard board, String result) {
+            int gamePlies = board.getPly();
+            games++;
+            plies += gamePlies;
+            lengths[Math.min(gamePlies / LENGTH_BUCKET, LENGTH_BUCKETS - 1)]++;
+            Termination termination = terminationOf(board);
+            terminations[termination.ordinal()]++;
+            countResult(result != null ? result : resultOf(board, termination));
+            
+            for (int i = gamePlies - 1; i >= 0; i--) {
+                if (board.isInCheck(board.isWhiteTurn())) {
+                    checks++;
+                }
+                int move = board.moveAt(i);
+                board.unmakeMove();
+                if (Move.isCapture(move)) {
+                    captures[Bitboards.typeOf(Move.movedPiece(move))][Bitboards.typeOf(Move.capturedPiece(move))]++;
+                }
+                if (i < OPENING_PLIES) {
+                    opening[i] = San.toSan(board, move, buffer);
+                }
+            }
+            if (gamePlies >= OPENING_PLIES) {
+                countOpening(String.join(" ", opening), 1L);
+            }
+        }
+        
+        private void countOpening(String line, long count) {
+            long[] slot = openings.get(line);
+            if (slot != null) {
+                slot[0] += count;
+            } else if (openings.size() < MAX_OPENINGS) {
+                openings.put(line, new long[] {count});
+            } else {
+                otherOpenings += count;
+            }
+        }
+        
+        private void countResult(String result) {
+            switch (result) {
+                case "1-0" -> whiteWins++;
+                case "0-1" -> blackWins++;
+                case "1/2-1/2" -> draws++;
+                default -> unknownResults++;
+            }
+        }
+        
+        void merge(Stats other) {
+            games += other.games;
+            errors += other.errors;
+            plies += other.plies;
+            checks += other.checks;
+            whiteWins += other.whiteWins;
+            blackWins += other.blackWins;
+            draws += other.draws;
+            unknownResults += other.unknownResults;
+            for (int i = 0; i < 6; i++) {
+                for (int j = 0; j < 6; j++) {
+                    captures[i][j] += other.captures[i][j];
+                }
+            }
+            for (int i = 0; i < LENGTH_BUCKETS; i++) {
+                lengths[i] += other.lengths[i];
+            }
+            for (int i = 0; i < terminations.length; i++) {
+                terminations[i] += other.terminations[i];
+            }
+            for (Map.Entry<String, long[]> entry : other.openings.entrySet()) {
+                countOpening(entry.getKey(), entry.getValue()[0]);
+            }
+            otherOpenings += other.otherOpenings;
+        }
+        
+        public long getGames() {
+            return games;
+        }
+        
+        public long getTermination(Termination termination) {
+            return terminations[termination.ordinal()];
+        }
+        
+        // Plain-text report with the given number of most played openings
+        public String report(int topOpenings) {
+            StringBuilder out = new StringBuilder();
+            out.append("Games: ").append(games).append(" (").append(errors).append(" unreadable)\n");
+            out.append("Plies: ").append(plies).append(", average ")
+               .append(games > 0 ? String.format("%.1f", (double) plies / games) : "0").append('\n');
+            out.append("Results: 1-0 ").append(whiteWins).append(", 0-1 ").append(blackWins)
+               .append(", 1/2-1/2 ").append(draws).append(", unknown ").append(unknownResults).append('\n');
+            out.append("Checks: ").append(checks).append('\n');
+            
+            out.append("Termination:");
+            for (Termination termination : Termination.values()) {
+                out.append(' ').append(termination.name().toLowerCase()).append(' ')
+                   .append(terminations[termination.ordinal()]);
+            }
+            out.append('\n');
+            
+            String letters = "PNBRQK";
+            out.append("Captures (row captures column):\n     P        N        B        R        Q\n");
+            for (int attacker = 0; attacker < 6; attacker++) {
+                out.append(letters.charAt(attacker));
+                for (int victim = 0; victim < 5; victim++) {
+                    out.append(String.format(" %8d", captures[attacker][victim]));
+                }
+                out.append('\n');
+            }
+            
+            out.append("Length in plies:\n");
+            for (int i = 0; i < LENGTH_BUCKETS; i++) {
+                if (lengths[i] == 0) continue;
+                String range = i == LENGTH_BUCKETS - 1 ? (i * LENGTH_BUCKET) + "+"
+                             : (i * LENGTH_BUCKET) + "-" + (i * LENGTH_BUCKET + LENGTH_BUCKET - 1);
+                out.append(String.format("  %-8s %d%n", range, lengths[i]));
+            }
+            
+            out.append("Openings (first ").append(OPENING_PLIES).append(" plies):\n");
+            List<Map.Entry<String, long[]>> sorted = new ArrayList<>(openings.entrySet());
+            sorted.sort((a, b) -> Long.compare(b.getValue()[0], a.getValue()[0]));
+            for (int i = 0; i < Math.min(topOpenings, sorted.size()); i++) {
+                Map.Entry<String, long[]> entry = sorted.get(i);
+                out.append(String.format("  %-24s %d%n", entry.getKey(), entry.getValue()[0]));
+            }
+            if (otherOpenings > 0) {
+                out.append(String.format("  %-24s %d%n", "(other)", otherOpenings));
+            }
+            return out.toString();
+        }
+    }
+    
+    static Termination terminationOf(ChessBoard board) {
+        GameStatus status = board.evaluateStatus();
+        if (status == GameStatus.CHECKMATE) return Termination.CHECKMATE;
+        if (status == GameStatus.STALEMATE) return Termination.STALEMATE;
+        if (board.isThreefoldRepetition()) return Termination.THREEFOLD_REPETITION;
+        if (board.getHalfmoveClock() >= 100) return Termination.FIFTY_MOVE_RULE;
+        if (board.isInsufficientMaterial()) return Termination.INSUFFICIENT_MATERIAL;
+        return Termination.UNFINISHED;
+    }
+    
+    private static String resultOf(ChessBoard board, Termination termination) {
+        switch (termination) {
+            case CHECKMATE:
+                return board.isWhiteTurn() ? "0-1" : "1-0";
+            case UNFINISHED:
+                return "*";
+            default:
+                return "1/2-1/2";
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int topOpenings = 20;
+        List<String[]> sources = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--openings")) {
+                topOpenings = Integer.parseInt(args[++i]);
+            } else if (i + 1 < args.length && (args[i].equals("--archive") || args[i].equals("--pgn")
+                                                || args[i].equals("--dir"))) {
+                sources.add(new String[] {args[i], args[++i]});
+            } else {
+                System.err.println("Unknown option: " + args[i]);
+                System.exit(2);
+            }
+        }
+        if (sources.isEmpty()) {
+            System.err.println("Usage: GameAnalytics [--archive file]... [--pgn file]... [--dir directory]... "
+                             + "[--threads N] [--openings N]");
+            System.exit(2);
+        }
+        
+        long start = System.nanoTime();
+        GameAnalytics analytics = new GameAnalytics(threads);
+        for (String[] source : sources) {
+            Path path = Paths.get(source[1]);
+            switch (source[0]) {
+                case "--archive" -> analytics.addArchive(path);
+                case "--pgn" -> analytics.addPgn(path);
+                default -> analytics.addSavedGames(path);
+            }
+        }
+        Stats stats = analytics.finish();
+        long elapsed = System.nanoTime() - start;
+        System.out.print(stats.report(topOpenings));
+        System.out.println("Time: " + elapsed / 1_000_000 + " ms, "
+                         + (elapsed > 0 ? stats.getGames() * 1_000_000_000L / elapsed : 0) + " games/s");
+    }
+}
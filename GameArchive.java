@@ -0,0 +1,234 @@
+package smartchess;
+
+// GameArchive.java - Append-only store for many games in one mapped file
+//
+// Games are appended to a data file and their offsets to a companion
+// "<name>.idx" file of 8-byte entries, so game id n is found with one index
+// read and decoded straight out of the mapped data without copying. The
+// index is written after the game, so a crash mid-append can only leave
+// unreferenced bytes at the end of the data file.
+//
+// Data file: 8-byte header ('S' 'C' 'G' 'A', version, 3 reserved bytes),
+// then one record per game:
+//   1 byte    0 for a game from the standard starting position, 1 when a
+//             GameCodec position block follows
+//   ...       moves as in GameCodec: varint count, 2 bytes per move
+//
+// Both files are mapped in 1 GB chunks that overlap by more than the
+// largest record, so any record is readable from the chunk it starts in.
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+public final class GameArchive implements Closeable {
+    static final int VERSION = 1;
+    
+    // Longest game that may be appended, which bounds the record size
+    public static final int MAX_PLIES = 8192;
+    
+    private static final byte[] MAGIC = {'S', 'C', 'G', 'A'};
+    private static final int HEADER_BYTES = 8;
+    private static final int STANDARD_START = 0;
+    private static final int CUSTOM_START = 1;
+    private static final int MAX_RECORD_BYTES = 1 + 36 + 5 + 5 + 5 + MAX_PLIES * 2;
+    private static final long STANDARD_START_KEY = new ChessBoard().getZobristKey();
+    
+    private final FileChannel data;
+    private final FileChannel index;
+    private final MappedFile dataMap;
+    private final MappedFile indexMap;
+    private volatile long dataSize;
+    private volatile long gameCount;
+    
+    private GameArchive(FileChannel data, FileChannel index) throws IOException {
+        this.data = data;
+        this.index = index;
+        dataMap = new MappedFile(data);
+        indexMap = new MappedFile(index);
+        
+        if (data.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.put(MAGIC).put((byte) VERSION).position(HEADER_BYTES);
+            header.flip();
+            writeFully(data, header, 0L);
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            data.read(header, 0L);
+            header.flip();
+            boolean valid = header.remaining() == HEADER_BYTES;
+            for (int i = 0; valid && i < MAGIC.length; i++) {
+                valid = header.get(i) == MAGIC[i];
+            }
+            if (!valid) {
+                throw new IOException("Not a SmartChess game archive");
+            }
+            int version = header.get(MAGIC.length) & 0xFF;
+            if (version != VERSION) {
+                throw new IOException("Unsupported archive version " + version);
+            }
+        }
+        dataSize = data.size();
+        // A torn index entry from an interrupted append is ignored and overwritten
+        gameCount = index.size() / Long.BYTES;
+    }
+    
+    // Opens an archive, creating it and its index if they do not exist
+    public static GameArchive open(Path path) throws IOException {
+        Path indexPath = Paths.get(path.toString() + ".idx");
+        FileChannel data = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            FileChannel index = FileChannel.open(indexPath, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            try {
+                return new GameArchive(data, index);
+            } catch (IOException e) {
+                index.close();
+                throw e;
+            }
+        } catch (IOException e) {
+            data.close();
+            throw e;
+        }
+    }
+    
+    public long size() {
+        return gameCount;
+    }
+    
+    // Stores board's starting position and move history; returns the game id
+    public synchronized long append(ChessBoard board) throws IOException {
+        if (board.getPly() > MAX_PLIES) {
+            throw new IllegalArgumentException("Game longer than " + MAX_PLIES + " plies");
+        }
+        ByteBuffer record = ByteBuffer.allocate(MAX_RECORD_BYTES);
+        ChessBoard start = GameCodec.startOf(board);
+        if (start.getZobristKey() == STANDARD_START_KEY && start.getHalfmoveClock() == 0
+                && start.getFullmoveNumber() == 1) {
+            record.put((byte) STANDARD_START);
+        } else {
+            record.put((byte) CUSTOM_START);
+            GameCodec.putPosition(record, start);
+        }
+        GameCodec.putMoves(record, board);
+        record.flip();
+        
+        long offset = dataSize;
+        writeFully(data, record, offset);
+        ByteBuffer entry = ByteBuffer.allocate(Long.BYTES).putLong(0, offset);
+        writeFully(index, entry, gameCount * Long.BYTES);
+        
+        dataSize = offset + record.limit();
+        return gameCount++;
+    }
+    
+    // Replaces board's position and history with game id
+    public void replay(long id, ChessBoard board) throws IOException {
+        long count = gameCount;
+        if (id < 0 || id >= count) {
+            throw new IndexOutOfBoundsException("Game " + id + " of " + count);
+        }
+        long offset = indexMap.slice(id * Long.BYTES, (id + 1) * Long.BYTES).getLong();
+        ByteBuffer record = dataMap.slice(offset, Math.min(dataSize, offset + MAX_RECORD_BYTES));
+        try {
+            int kind = record.get();
+            if (kind == STANDARD_START) {
+                board.initializeBoard();
+            } else if (kind == CUSTOM_START) {
+                GameCodec.getPosition(record, board);
+            } else {
+                throw new IOException("Bad record type " + kind + " for game " + id);
+            }
+            GameCodec.getMoves(record, board);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated record for game " + id, e);
+        }
+    }
+    
+    // Streams every game in id order through one reused board; action sees
+    // the final position with its full history, so it may walk it with undo
+    public void forEachGame(ChessBoard board, LongConsumer action) throws IOException {
+        long count = gameCount;
+        for (long id = 0; id < count; id++) {
+            replay(id, board);
+            action.accept(id);
+        }
+    }
+    
+    // Forces appended games to disk
+    public synchronized void flush() throws IOException {
+        data.force(false);
+        index.force(false);
+    }
+    
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            data.close();
+        } finally {
+            index.close();
+        }
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+    
+    // Read-only chunked mapping of a file that only grows. A chunk is
+    // remapped when a read needs bytes appended after it was mapped.
+    private static final class MappedFile {
+        private static final int CHUNK_SHIFT = 30;
+        private static final long CHUNK_BYTES = 1L << CHUNK_SHIFT;
+        private static final long OVERLAP_BYTES = 1L << 16;
+        
+        private final FileChannel channel;
+        private volatile MappedByteBuffer[] chunks = new MappedByteBuffer[0];
+        
+        MappedFile(FileChannel channel) {
+            this.channel = channel;
+        }
+        
+        // A buffer positioned at offset and readable at least up to end,
+        // which may lie at most OVERLAP_BYTES past offset
+        ByteBuffer slice(long offset, long end) throws IOException {
+            int chunk = (int) (offset >>> CHUNK_SHIFT);
+            long chunkStart = (long) chunk << CHUNK_SHIFT;
+            long needed = end - chunkStart;
+            
+            MappedByteBuffer[] current = chunks;
+            MappedByteBuffer mapped = chunk < current.length ? current[chunk] : null;
+            if (mapped == null || mapped.capacity() < needed) {
+                mapped = map(chunk, end);
+            }
+            ByteBuffer view = mapped.duplicate();
+            view.position((int) (offset - chunkStart));
+            return view;
+        }
+        
+        // Maps as much of the chunk as the file holds, so appends do not
+        // force a remap on every read
+        private synchronized MappedByteBuffer map(int chunk, long end) throws IOException {
+            long chunkStart = (long) chunk << CHUNK_SHIFT;
+            long length = Math.min(Math.max(end, channel.size()), chunkStart + CHUNK_BYTES + OVERLAP_BYTES) - chunkStart;
+            MappedByteBuffer[] current = chunks;
+            if (chunk < current.length && current[chunk] != null && current[chunk].capacity() >= length) {
+                return current[chunk];
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, length);
+            MappedByteBuffer[] grown = Arrays.copyOf(current, Math.max(current.length, chunk + 1));
+            grown[chunk] = mapped;
+            chunks = grown;
+            return mapped;
+        }
+    }
+}
@@ -0,0 +1,251 @@
+package smartchess;
+
+// GameCodec.java - Compact, versioned binary encoding of a game
+//
+// Layout (big-endian):
+//   4 bytes   magic 'S' 'C' 'G' and format version
+//   32 bytes  starting position, two squares per byte (high nibble first),
+//             each piece code + 1 with 0 for an empty square, a8 to h1
+//   1 byte    bit 0 set when black is to move, bits 4-7 castling rights
+//   1 byte    en passant square + 1, or 0
+//   varint    halfmove clock
+//   varint    fullmove number
+//   varint    number of moves, then each move as 2 bytes:
+//             from | to << 6 | promotion type << 12 (0 when not a promotion)
+//
+// A typical 80-ply game takes about 200 bytes. Moves are replayed through
+// the move generator on load, so a corrupt or hand-edited file is rejected
+// rather than producing an impossible position.
+//
+// Usage: GameCodec --verify
+// Saves and loads a set of positions and games and checks that every FEN,
+// clocks included, comes back unchanged.
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+final class GameCodec {
+    static final int VERSION = 1;
+    
+    private static final byte[] MAGIC = {'S', 'C', 'G'};
+    private static final int HEADER_BYTES = MAGIC.length + 1 + 32 + 2;
+    
+    // Largest file loadGame will read into memory
+    private static final long MAX_FILE_BYTES = 16L * 1024 * 1024;
+    
+    private GameCodec() {
+    }
+    
+    public static void write(ChessBoard board, Path path) throws IOException {
+        ByteBuffer buffer = encode(board);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+    
+    public static void read(Path path, ChessBoard board) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_FILE_BYTES) {
+                throw new IOException("Game file too large: " + size + " bytes");
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the buffer is full or the file ends
+            }
+            buffer.flip();
+            decode(buffer, board);
+        }
+    }
+    
+    // The starting position and all moves of board's history, ready to read
+    public static ByteBuffer encode(ChessBoard board) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + 15 + board.getPly() * 2);
+        buffer.put(MAGIC).put((byte) VERSION);
+        putPosition(buffer, startOf(board));
+        putMoves(buffer, board);
+        buffer.flip();
+        return buffer;
+    }
+    
+    // Replaces board's position and history with the encoded game
+    public static void decode(ByteBuffer buffer, ChessBoard board) throws IOException {
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (magic[i] != MAGIC[i]) {
+                    throw new IOException("Not a SmartChess game file");
+                }
+            }
+            int version = buffer.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IOException("Unsupported game file version " + version);
+            }
+            getPosition(buffer, board);
+            getMoves(buffer, board);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated game file", e);
+        }
+    }
+    
+    // A copy of board walked back to the first position of its history
+    static ChessBoard startOf(ChessBoard board) {
+        ChessBoard start = new ChessBoard(board);
+        while (start.getPly() > 0) {
+            start.unmakeMove();
+        }
+        return start;
+    }
+    
+    // Board, side to move, castling, en passant and both clocks of one position
+    static void putPosition(ByteBuffer buffer, ChessBoard position) {
+        for (int sq = 0; sq < 64; sq += 2) {
+            buffer.put((byte) (((position.pieceAt(sq) + 1) << 4) | (position.pieceAt(sq + 1) + 1)));
+        }
+        buffer.put((byte) ((position.isWhiteTurn() ? 0 : 1) | (position.castlingRights() << 4)));
+        buffer.put((byte) (position.enPassantSquare() + 1));
+        putVarint(buffer, position.getHalfmoveClock());
+        putVarint(buffer, position.getFullmoveNumber());
+    }
+    
+    static void getPosition(ByteBuffer buffer, ChessBoard board) throws IOException {
+        byte[] codes = new byte[64];
+        for (int sq = 0; sq < 64; sq += 2) {
+            int pair = buffer.get() & 0xFF;
+            codes[sq] = pieceCode(pair >>> 4);
+            codes[sq + 1] = pieceCode(pair & 0xF);
+        }
+        int flags = buffer.get() & 0xFF;
+        int epSquare = (buffer.get() & 0xFF) - 1;
+        if (epSquare > 63) {
+            throw new IOException("Bad en passant square");
+        }
+        int clock = getVarint(buffer);
+        int fullmove = getVarint(buffer);
+        if (fullmove < 1) {
+            throw new IOException("Bad fullmove number " + fullmove);
+        }
+        board.loadPosition(codes, (flags & 1) == 0, flags >>> 4, epSquare, clock, fullmove);
+    }
+    
+    // Every move of board's history: varint count, then 2 bytes per move
+    static void putMoves(ByteBuffer buffer, ChessBoard board) {
+        int plies = board.getPly();
+        putVarint(buffer, plies);
+        for (int i = 0; i < plies; i++) {
+            buffer.putShort((short) packMove(board.moveAt(i)));
+        }
+    }
+    
+    // Plays stored moves on board, checking each against the generator
+    static void getMoves(ByteBuffer buffer, ChessBoard board) throws IOException {
+        int plies = getVarint(buffer);
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        for (int i = 0; i < plies; i++) {
+            int move = findMove(board, buffer.getShort() & 0xFFFF, moves);
+            if (move == 0) {
+                throw new IOException("Illegal move at ply " + (i + 1));
+            }
+            board.makeMove(move);
+        }
+    }
+    
+    // The from/to/promotion part of a move, as stored on disk
+    static int packMove(int move) {
+        int promotion = Move.flags(move) == Move.PROMOTION ? Move.promotionType(move) : 0;
+        return Move.fromSquare(move) | (Move.toSquare(move) << 6) | (promotion << 12);
+    }
+    
+    // The legal move matching a stored one, or 0
+    static int findMove(ChessBoard board, int packed, int[] moves) {
+        int count = board.generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            if (packMove(moves[i]) == packed) {
+                return moves[i];
+            }
+        }
+        return 0;
+    }
+    
+    private static byte pieceCode(int nibble) throws IOException {
+        if (nibble > 12) {
+            throw new IOException("Bad piece code " + nibble);
+        }
+        return (byte) (nibble - 1);
+    }
+    
+    // Unsigned LEB128: seven bits per byte, high bit set on all but the last
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+    
+    static int getVarint(ByteBuffer buffer) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = buffer.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+    
+    // Positions with non-default clocks, en passant and castling rights
+    private static final String[] VERIFY_FENS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "K1k5/8/8/8/8/8/8/8 b - - 7 40",
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 12 57",
+        "r3k2r/8/8/8/8/8/8/R3K2R b KQkq - 99 120"
+    };
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1 || !args[0].equals("--verify")) {
+            System.err.println("Usage: GameCodec --verify");
+            System.exit(2);
+        }
+        System.exit(verifyRoundTrips() ? 0 : 1);
+    }
+    
+    // Each position, and a few moves played from it, through saveGame and loadGame
+    private static boolean verifyRoundTrips() throws IOException {
+        Path file = Files.createTempFile("smartchess-codec", ".scg");
+        boolean ok = true;
+        try {
+            int[] moves = new int[MoveGenerator.MAX_MOVES];
+            for (String fen : VERIFY_FENS) {
+                ChessBoard board = new ChessBoard(fen);
+                for (int ply = 0; ply <= 3; ply++) {
+                    if (ply > 0) {
+                        int count = board.generateMoves(moves);
+                        if (count == 0) break;
+                        board.makeMove(moves[count / 2]);
+                    }
+                    ChessBoard loaded = new ChessBoard();
+                    boolean match = board.saveGame(file.toString()) && loaded.loadGame(file.toString())
+                                 && loaded.getFen().equals(board.getFen()) && loaded.getPly() == board.getPly()
+                                 && startOf(loaded).getFen().equals(startOf(board).getFen());
+                    System.out.println(board.getFen() + (match ? " ok" : " loaded as " + loaded.getFen()));
+                    ok &= match;
+                }
+            }
+        } finally {
+            Files.deleteIfExists(file);
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,390 @@
+package smartchess;
+
+// GameSessionManager.java - Headless host for many concurrent games
+//
+// Every game is an actor: operations are queued on the game's own mailbox
+// and run one at a time on a virtual thread, so a ChessBoard is never
+// touched by two threads at once and no lock is shared between games.
+// Callers get a CompletableFuture for each operation. A background sweep
+// writes games idle for longer than the timeout to disk with GameCodec and
+// drops their boards; the next operation on such a game loads it back.
+// Histories are capped at MAX_PLIES, which bounds the memory of a game.
+//
+// Usage: GameSessionManager [--games N] [--moves N] [--idle-ms N] [--dir path]
+//        GameSessionManager --verify [--dir path]
+// Plays random games on every session concurrently and reports throughput;
+// --verify instead checks that evicting and reloading a game keeps its FEN
+// and history.
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public final class GameSessionManager implements AutoCloseable {
+    public static final int MAX_PLIES = GameArchive.MAX_PLIES;
+    
+    private final Path spillDirectory;
+    private final long idleNanos;
+    private final ConcurrentHashMap<Long, Session> sessions = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong(1);
+    private final AtomicInteger resident = new AtomicInteger();
+    private final AtomicLong evictions = new AtomicLong();
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ScheduledExecutorService sweeper;
+    
+    // Evicted games are written to spillDirectory after idleTimeout
+    public GameSessionManager(Path spillDirectory, Duration idleTimeout) throws IOException {
+        this.spillDirectory = Files.createDirectories(spillDirectory);
+        this.idleNanos = idleTimeout.toNanos();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "smartchess-session-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1L, idleTimeout.toMillis() / 2);
+        sweeper.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    // Starts a game from the initial position and returns its id
+    public long create() {
+        return register(new ChessBoard());
+    }
+    
+    // Throws IllegalArgumentException for a bad FEN
+    public long create(String fen) {
+        return register(new ChessBoard(fen));
+    }
+    
+    private long register(ChessBoard board) {
+        long id = nextId.getAndIncrement();
+        Session session = new Session(id, board);
+        resident.incrementAndGet();
+        sessions.put(id, session);
+        return id;
+    }
+    
+    // Plays a move in coordinate ("e2e4", "e7e8q") or SAN form and completes
+    // with the status of the side to move afterwards; an illegal move
+    // completes exceptionally with IllegalArgumentException
+    public CompletableFuture<GameStatus> move(long id, String move) {
+        return submit(id, board -> {
+            if (board.getPly() >= MAX_PLIES) {
+                throw new IllegalStateException("Game " + id + " reached " + MAX_PLIES + " plies");
+            }
+            int legal = parseMove(board, move);
+            if (legal == 0) {
+                throw new IllegalArgumentException("Illegal move " + move + " in game " + id);
+            }
+            board.makeMove(legal);
+            return board.evaluateStatus();
+        });
+    }
+    
+    // Completes with false when there is nothing to undo
+    public CompletableFuture<Boolean> undo(long id) {
+        return submit(id, ChessBoard::undoLastMove);
+    }
+    
+    public CompletableFuture<GameStatus> status(long id) {
+        return submit(id, ChessBoard::evaluateStatus);
+    }
+    
+    public CompletableFuture<String> fen(long id) {
+        return submit(id, ChessBoard::getFen);
+    }
+    
+    // Legal moves for the side to move in coordinate form
+    public CompletableFuture<List<String>> legalMoves(long id) {
+        return submit(id, board -> {
+            int[] moves = new int[MoveGenerator.MAX_MOVES];
+            int count = board.generateMoves(moves);
+            List<String> result = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                result.add(Move.toCoordinate(moves[i]));
+            }
+            return result;
+        });
+    }
+    
+    // Ends a game and deletes its spilled copy, if any
+    public CompletableFuture<Boolean> remove(long id) {
+        Session session = sessions.remove(id);
+        if (session == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        return session.submit(board -> session.close(), false);
+    }
+    
+    // Number of games, including evicted ones
+    public int size() {
+        return sessions.size();
+    }
+    
+    // Number of games whose board is in memory
+    public int residentCount() {
+        return resident.get();
+    }
+    
+    public long evictionCount() {
+        return evictions.get();
+    }
+    
+    // Queues an eviction for every game idle longer than the timeout;
+    // returns how many were queued. Runs periodically on its own.
+    public int evictIdle() {
+        long cutoff = System.nanoTime() - idleNanos;
+        int queued = 0;
+        for (Session session : sessions.values()) {
+            if (session.isIdleSince(cutoff)) {
+                session.submit(board -> session.evict(cutoff), false);
+                queued++;
+            }
+        }
+        return queued;
+    }
+    
+    // Stops the sweep and the session threads; queued operations may not run
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        executor.shutdownNow();
+    }
+    
+    private <T> CompletableFuture<T> submit(long id, Operation<T> operation) {
+        Session session = sessions.get(id);
+        if (session == null) {
+            return CompletableFuture.failedFuture(new NoSuchElementException("No game " + id));
+        }
+        return session.submit(operation, true);
+    }
+    
+    private static int parseMove(ChessBoard board, String text) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int count = board.generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            if (Move.toCoordinate(moves[i]).equalsIgnoreCase(text)) return moves[i];
+        }
+        return San.parse(board, text, moves);
+    }
+    
+    private Path spillFile(long id) {
+        return spillDirectory.resolve(id + ".scg");
+    }
+    
+    // Work run against a game's board on the game's own thread
+    private interface Operation<T> {
+        T apply(ChessBoard board) throws IOException;
+    }
+    
+    // One game and its mailbox. The board is only changed while draining
+    // the mailbox, which at most one thread does at a time.
+    private final class Session {
+        private final long id;
+        private final ConcurrentLinkedQueue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private volatile long lastUsed = System.nanoTime();
+        private volatile ChessBoard board; // Read by the sweep, written only here
+        private boolean closed;
+        
+        Session(long id, ChessBoard board) {
+            this.id = id;
+            this.board = board;
+        }
+        
+        // Client operations reload an evicted board and count as activity;
+        // housekeeping gets the board as it is, possibly null
+        <T> CompletableFuture<T> submit(Operation<T> operation, boolean client) {
+            if (client) {
+                lastUsed = System.nanoTime();
+            }
+            CompletableFuture<T> result = new CompletableFuture<>();
+            mailbox.add(() -> {
+                try {
+                    if (closed) throw new NoSuchElementException("Game " + id + " was removed");
+                    result.complete(operation.apply(client ? board() : board));
+                } catch (IOException e) {
+                    result.completeExceptionally(new UncheckedIOException(e));
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+            return result;
+        }
+        
+        private void drain() {
+            while (true) {
+                Runnable task;
+                while ((task = mailbox.poll()) != null) {
+                    task.run();
+                }
+                scheduled.set(false);
+                // A task queued after the last poll may have seen scheduled still set
+                if (mailbox.isEmpty() || !scheduled.compareAndSet(false, true)) return;
+            }
+        }
+        
+        boolean isIdleSince(long cutoff) {
+            return lastUsed - cutoff < 0 && board != null;
+        }
+        
+        // Loads an evicted game back from its spill file
+        private ChessBoard board() throws IOException {
+            if (board == null && !closed) {
+                ChessBoard loaded = new ChessBoard();
+                Path file = spillFile(id);
+                GameCodec.read(file, loaded);
+                Files.delete(file);
+                board = loaded;
+                resident.incrementAndGet();
+            }
+            return board;
+        }
+        
+        // Skips games used again since the sweep looked at them
+        Void evict(long cutoff) throws IOException {
+            if (lastUsed - cutoff < 0 && board != null && !closed) {
+                GameCodec.write(board, spillFile(id));
+                board = null;
+                resident.decrementAndGet();
+                evictions.incrementAndGet();
+            }
+            return null;
+        }
+        
+        Boolean close() throws IOException {
+            if (board != null) {
+                board = null;
+                resident.decrementAndGet();
+            }
+            closed = true;
+            Files.deleteIfExists(spillFile(id));
+            return true;
+        }
+    }
+    
+    public static void main(String[] args) throws Exception {
+        int games = 10_000;
+        int moves = 40;
+        long idleMillis = 200;
+        Path directory = Paths.get(System.getProperty("java.io.tmpdir"), "smartchess-sessions");
+        boolean verify = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--games")) {
+                games = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--moves")) {
+                moves = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--idle-ms")) {
+                idleMillis = Long.parseLong(args[++i]);
+            } else if (args[i].equals("--dir")) {
+                directory = Paths.get(args[++i]);
+            } else if (args[i].equals("--verify")) {
+                verify = true;
+            }
+        }
+        if (verify) {
+            System.exit(verifyEviction(directory) ? 0 : 1);
+        }
+        
+        try (GameSessionManager manager = new GameSessionManager(directory, Duration.ofMillis(idleMillis))) {
+            long[] ids = new long[games];
+            for (int i = 0; i < games; i++) {
+                ids[i] = manager.create();
+            }
+            long start = System.nanoTime();
+            AtomicLong operations = new AtomicLong();
+            List<CompletableFuture<?>> players = new ArrayList<>(games);
+            for (long id : ids) {
+                players.add(play(manager, id, moves, new Random(id), operations));
+            }
+            CompletableFuture.allOf(players.toArray(new CompletableFuture<?>[0])).join();
+            long elapsed = System.nanoTime() - start;
+            
+            Thread.sleep(idleMillis * 2);
+            manager.evictIdle();
+            for (long id : ids) {
+                manager.status(id).join(); // Reloads any evicted game
+            }
+            System.out.println("Games: " + games);
+            System.out.println("Operations: " + operations.get());
+            System.out.println("Time: " + elapsed / 1_000_000 + " ms");
+            System.out.println("Operations/s: " + (elapsed > 0 ? operations.get() * 1_000_000_000L / elapsed : 0));
+            System.out.println("Evictions: " + manager.evictionCount());
+            System.out.println("Resident: " + manager.residentCount());
+        }
+    }
+    
+    // Positions with non-default clocks, castling rights and en passant
+    private static final String[] VERIFY_FENS = {
+        "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1",
+        "r1bqkbnr/pppppppp/2n5/8/8/2N5/PPPPPPPP/R1BQKBNR b KQkq - 3 30",
+        "rnbqkbnr/ppp1p1pp/8/3pPp2/8/8/PPPP1PPP/RNBQKBNR w KQkq f6 0 3",
+        "K1k5/8/8/8/8/8/8/8 b - - 7 40"
+    };
+    
+    // Evicts every game, with and without moves played, and checks that the
+    // reloaded game has the same FEN and can still undo back to its start
+    private static boolean verifyEviction(Path directory) throws Exception {
+        boolean ok = true;
+        try (GameSessionManager manager = new GameSessionManager(directory, Duration.ofDays(1))) {
+            for (String fen : VERIFY_FENS) {
+                for (int moves = 0; moves <= 2; moves++) {
+                    long id = manager.create(fen);
+                    for (int i = 0; i < moves; i++) {
+                        List<String> legal = manager.legalMoves(id).join();
+                        manager.move(id, legal.get(legal.size() / 2)).join();
+                    }
+                    String before = manager.fen(id).join();
+                    long evicted = manager.evictionCount();
+                    Session session = manager.sessions.get(id);
+                    session.submit(board -> session.evict(System.nanoTime() + 1), false).join();
+                    boolean spilled = manager.evictionCount() == evicted + 1;
+                    String after = manager.fen(id).join();
+                    for (int i = 0; i < moves; i++) {
+                        manager.undo(id).join();
+                    }
+                    String start = manager.fen(id).join();
+                    boolean match = spilled && after.equals(before) && start.equals(fen);
+                    System.out.println(before + (match ? " ok"
+                                     : spilled ? " reloaded as " + after + ", undone to " + start : " not evicted"));
+                    ok &= match;
+                    manager.remove(id).join();
+                }
+            }
+        }
+        return ok;
+    }
+    
+    // Chains random moves on one game until it ends or has played count moves
+    private static CompletableFuture<Void> play(GameSessionManager manager, long id, int count,
+                                                Random random, AtomicLong operations) {
+        if (count == 0) return CompletableFuture.completedFuture(null);
+        return manager.legalMoves(id).thenCompose(legal -> {
+            operations.incrementAndGet();
+            if (legal.isEmpty()) return CompletableFuture.completedFuture(null);
+            return manager.move(id, legal.get(random.nextInt(legal.size()))).thenCompose(status -> {
+                operations.incrementAndGet();
+                return status.isGameOver() ? CompletableFuture.completedFuture(null)
+                                           : play(manager, id, count - 1, random, operations);
+            });
+        });
+    }
+}
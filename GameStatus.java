@@ -0,0 +1,13 @@
+package smartchess;
+
+// GameStatus.java - Outcome of ChessBoard.evaluateStatus for the side to move
+public enum GameStatus {
+    IN_PROGRESS,
+    CHECK,
+    CHECKMATE,
+    STALEMATE;
+    
+    public boolean isGameOver() {
+        return this == CHECKMATE || this == STALEMATE;
+    }
+}
@@ -16,8 +16,9 @@ class King extends Piece {
             return true;
         }
         
-        // Castling
-        if (moveCount == 0 && rowDiff == 0 && colDiff == 2) {
+        // Castling (moved-king tracking lives in ChessBoard.canCastle)
+        int homeRow = isWhite ? 7 : 0;
+        if (from.row == homeRow && from.col == 4 && rowDiff == 0 && colDiff == 2) {
             boolean kingside = to.col > from.col;
             return board.canCastle(isWhite, kingside) && 
                    !board.isInCheck(isWhite);
@@ -26,6 +27,9 @@ class King extends Piece {
         return false;
     }
     
+    @Override
+    public int getType() { return Bitboards.KING; }
+    
     @Override
     public String getName() { return "King"; }
     
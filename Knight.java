@@ -13,6 +13,9 @@ class Knight extends Piece {
         return (rowDiff == 2 && colDiff == 1) || (rowDiff == 1 && colDiff == 2);
     }
     
+    @Override
+    public int getType() { return Bitboards.KNIGHT; }
+    
     @Override
     public String getName() { return "Knight"; }
     
@@ -5,16 +5,32 @@ import java.io.Serializable;
 class Move implements Serializable {
     private static final long serialVersionUID = 1L;
     
+    // Packed int form used by the move generator and search:
+    // bits 0-5 from square, 6-11 to square, 12-15 flags, 16-18 promotion type,
+    // 20-23 moved piece code, 24-27 captured piece code + 1 (0 when nothing is taken)
+    public static final int NORMAL = 0;
+    public static final int DOUBLE_PUSH = 1;
+    public static final int EN_PASSANT = 2;
+    public static final int CASTLE = 3;
+    public static final int PROMOTION = 4;
+    
     public final Position from;
     public final Position to;
     public final Piece piece;
     public final Piece captured;
+    // Packed form of this move, or 0 if it was built from squares only
+    public final int encoded;
     
     public Move(Position from, Position to, Piece piece, Piece captured) {
+        this(from, to, piece, captured, 0);
+    }
+    
+    public Move(Position from, Position to, Piece piece, Piece captured, int encoded) {
         this.from = from;
         this.to = to;
         this.piece = piece;
         this.captured = captured;
+        this.encoded = encoded;
     }
     
     @Override
@@ -23,4 +39,53 @@ class Move implements Serializable {
                          (captured != null ? "x" : "-") + to.toString();
         return notation;
     }
+    
+    public static int encode(int from, int to, int flags, int moved, int captured) {
+        return from | (to << 6) | (flags << 12) | (moved << 20) | ((captured + 1) << 24);
+    }
+    
+    public static int encodePromotion(int from, int to, int promotionType, int moved, int captured) {
+        return encode(from, to, PROMOTION, moved, captured) | (promotionType << 16);
+    }
+    
+    public static int fromSquare(int move) {
+        return move & 0x3F;
+    }
+    
+    public static int toSquare(int move) {
+        return (move >>> 6) & 0x3F;
+    }
+    
+    public static int flags(int move) {
+        return (move >>> 12) & 0xF;
+    }
+    
+    public static int promotionType(int move) {
+        return (move >>> 16) & 0x7;
+    }
+    
+    public static int movedPiece(int move) {
+        return (move >>> 20) & 0xF;
+    }
+    
+    // Piece code taken by this move, or Bitboards.EMPTY
+    public static int capturedPiece(int move) {
+        return ((move >>> 24) & 0xF) - 1;
+    }
+    
+    public static boolean isCapture(int move) {
+        return (move & 0x0F000000) != 0;
+    }
+    
+    // Coordinate notation such as e2e4 or e7e8q
+    public static String toCoordinate(int move) {
+        int from = fromSquare(move);
+        int to = toSquare(move);
+        String text = "" + (char) ('a' + (from & 7)) + (8 - (from >>> 3))
+                    + (char) ('a' + (to & 7)) + (8 - (to >>> 3));
+        if (flags(move) == PROMOTION) {
+            text += "pnbrqk".charAt(promotionType(move));
+        }
+        return text;
+    }
 }
\ No newline at end of file
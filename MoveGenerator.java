@@ -0,0 +1,192 @@
+package smartchess;
+
+// MoveGenerator.java - Bitboard move generation for ChessBoard
+//
+// Emits only moves a piece can actually reach, then drops the ones that
+// leave the mover's king in check. Moves are written into a caller-supplied
+// int[] in the packed Move encoding and the count is returned.
+final class MoveGenerator {
+    // Upper bound on legal moves in any reachable position is 218
+    public static final int MAX_MOVES = 256;
+    
+    private static final long FIRST_ROW = 0xFFL;
+    private static final long LAST_ROW = 0xFF00000000000000L;
+    private static final long WHITE_DOUBLE_PUSH_ROW = 0xFFL << 40; // row 5, after one step
+    private static final long BLACK_DOUBLE_PUSH_ROW = 0xFFL << 16; // row 2, after one step
+    
+    private MoveGenerator() {
+    }
+    
+    public static int generateLegalMoves(ChessBoard board, int[] moves) {
+        return generateLegalMoves(board, board.sideToMove(), -1L, moves);
+    }
+    
+    // Legal moves for pieces of color us standing on a square in fromMask
+    public static int generateLegalMoves(ChessBoard board, int us, long fromMask, int[] moves) {
+        return filterLegal(board, us, moves, generatePseudoLegalMoves(board, us, fromMask, false, moves));
+    }
+    
+    // Legal captures and promotions for the side to move, for quiescence search
+    public static int generateLegalCaptures(ChessBoard board, int[] moves) {
+        int us = board.sideToMove();
+        return filterLegal(board, us, moves, generatePseudoLegalMoves(board, us, -1L, true, moves));
+    }
+    
+    private static int filterLegal(ChessBoard board, int us, int[] moves, int count) {
+        int legal = 0;
+        for (int i = 0; i < count; i++) {
+            if (board.isLegal(moves[i], us)) {
+                moves[legal++] = moves[i];
+            }
+        }
+        return legal;
+    }
+    
+    // Early-exit legality probe: generates one piece at a time, king first,
+    // and stops at the first legal move
+    public static boolean hasLegalMove(ChessBoard board, int us, int[] moves) {
+        long king = board.pieces(Bitboards.code(us, Bitboards.KING));
+        if (generateLegalMoves(board, us, king, moves) > 0) return true;
+        
+        for (long own = board.occupied(us) & ~king; own != 0; own &= own - 1) {
+            if (generateLegalMoves(board, us, own & -own, moves) > 0) return true;
+        }
+        return false;
+    }
+    
+    static int generatePseudoLegalMoves(ChessBoard board, int us, long fromMask, boolean capturesOnly, int[] moves) {
+        int them = 1 - us;
+        int offset = Bitboards.code(us, Bitboards.PAWN);
+        long own = board.occupied(us);
+        long enemy = board.occupied(them);
+        long all = board.allOccupied();
+        long targets = capturesOnly ? enemy : ~own;
+        int count = 0;
+        
+        count = generatePawnMoves(board, us, board.pieces(offset) & fromMask, enemy, all, capturesOnly, moves, count);
+        
+        int knight = offset + Bitboards.KNIGHT;
+        for (long knights = board.pieces(knight) & fromMask; knights != 0; knights &= knights - 1) {
+            int from = Long.numberOfTrailingZeros(knights);
+            count = addMoves(board, from, knight, Bitboards.KNIGHT_ATTACKS[from] & targets, moves, count);
+        }
+        int bishop = offset + Bitboards.BISHOP;
+        for (long bishops = board.pieces(bishop) & fromMask; bishops != 0; bishops &= bishops - 1) {
+            int from = Long.numberOfTrailingZeros(bishops);
+            count = addMoves(board, from, bishop, Bitboards.bishopAttacks(from, all) & targets, moves, count);
+        }
+        int rook = offset + Bitboards.ROOK;
+        for (long rooks = board.pieces(rook) & fromMask; rooks != 0; rooks &= rooks - 1) {
+            int from = Long.numberOfTrailingZeros(rooks);
+            count = addMoves(board, from, rook, Bitboards.rookAttacks(from, all) & targets, moves, count);
+        }
+        int queen = offset + Bitboards.QUEEN;
+        for (long queens = board.pieces(queen) & fromMask; queens != 0; queens &= queens - 1) {
+            int from = Long.numberOfTrailingZeros(queens);
+            count = addMoves(board, from, queen, Bitboards.queenAttacks(from, all) & targets, moves, count);
+        }
+        
+        int kingCode = offset + Bitboards.KING;
+        long king = board.pieces(kingCode) & fromMask;
+        if (king != 0) {
+            int from = Long.numberOfTrailingZeros(king);
+            count = addMoves(board, from, kingCode, Bitboards.KING_ATTACKS[from] & targets, moves, count);
+            if (!capturesOnly) {
+                count = generateCastling(board, us, from, moves, count);
+            }
+        }
+        return count;
+    }
+    
+    private static int generatePawnMoves(ChessBoard board, int us, long pawns, long enemy, long all,
+                                         boolean capturesOnly, int[] moves, int count) {
+        if (pawns == 0) return count;
+        
+        // Pushes are done set-wise; white moves up the board (towards bit 0)
+        int step = us == Bitboards.WHITE ? -8 : 8;
+        long single = (us == Bitboards.WHITE ? pawns >>> 8 : pawns << 8) & ~all;
+        long doubleRow = us == Bitboards.WHITE ? WHITE_DOUBLE_PUSH_ROW : BLACK_DOUBLE_PUSH_ROW;
+        long doubles = single & doubleRow;
+        doubles = (us == Bitboards.WHITE ? doubles >>> 8 : doubles << 8) & ~all;
+        long promotionRow = us == Bitboards.WHITE ? FIRST_ROW : LAST_ROW;
+        if (capturesOnly) {
+            // Promotions still change material, so they stay in
+            single &= promotionRow;
+            doubles = 0L;
+        }
+        
+        int pawn = Bitboards.code(us, Bitboards.PAWN);
+        for (long pushes = single; pushes != 0; pushes &= pushes - 1) {
+            int to = Long.numberOfTrailingZeros(pushes);
+            int from = to - step;
+            if (((1L << to) & promotionRow) != 0) {
+                count = addPromotions(from, to, pawn, Bitboards.EMPTY, moves, count);
+            } else {
+                moves[count++] = Move.encode(from, to, Move.NORMAL, pawn, Bitboards.EMPTY);
+            }
+        }
+        for (long pushes = doubles; pushes != 0; pushes &= pushes - 1) {
+            int to = Long.numberOfTrailingZeros(pushes);
+            moves[count++] = Move.encode(to - 2 * step, to, Move.DOUBLE_PUSH, pawn, Bitboards.EMPTY);
+        }
+        
+        int epSquare = us == board.sideToMove() ? board.enPassantSquare() : -1;
+        long epBit = epSquare >= 0 ? 1L << epSquare : 0L;
+        for (long p = pawns; p != 0; p &= p - 1) {
+            int from = Long.numberOfTrailingZeros(p);
+            long attacks = Bitboards.PAWN_ATTACKS[us][from];
+            for (long captures = attacks & enemy; captures != 0; captures &= captures - 1) {
+                int to = Long.numberOfTrailingZeros(captures);
+                int captured = board.pieceAt(to);
+                if (((1L << to) & promotionRow) != 0) {
+                    count = addPromotions(from, to, pawn, captured, moves, count);
+                } else {
+                    moves[count++] = Move.encode(from, to, Move.NORMAL, pawn, captured);
+                }
+            }
+            if ((attacks & epBit) != 0) {
+                int captured = Bitboards.code(1 - us, Bitboards.PAWN);
+                moves[count++] = Move.encode(from, epSquare, Move.EN_PASSANT, pawn, captured);
+            }
+        }
+        return count;
+    }
+    
+    private static int generateCastling(ChessBoard board, int us, int kingSq, int[] moves, int count) {
+        int homeRow = us == Bitboards.WHITE ? 7 : 0;
+        if (kingSq != Bitboards.square(homeRow, 4)) return count;
+        
+        int them = 1 - us;
+        if (board.isSquareAttacked(kingSq, them)) return count;
+        int king = Bitboards.code(us, Bitboards.KING);
+        
+        // The king may not pass through or land on an attacked square
+        if (board.canCastle(us == Bitboards.WHITE, true)
+                && !board.isSquareAttacked(kingSq + 1, them)
+                && !board.isSquareAttacked(kingSq + 2, them)) {
+            moves[count++] = Move.encode(kingSq, kingSq + 2, Move.CASTLE, king, Bitboards.EMPTY);
+        }
+        if (board.canCastle(us == Bitboards.WHITE, false)
+                && !board.isSquareAttacked(kingSq - 1, them)
+                && !board.isSquareAttacked(kingSq - 2, them)) {
+            moves[count++] = Move.encode(kingSq, kingSq - 2, Move.CASTLE, king, Bitboards.EMPTY);
+        }
+        return count;
+    }
+    
+    private static int addMoves(ChessBoard board, int from, int moved, long targets, int[] moves, int count) {
+        for (; targets != 0; targets &= targets - 1) {
+            int to = Long.numberOfTrailingZeros(targets);
+            moves[count++] = Move.encode(from, to, Move.NORMAL, moved, board.pieceAt(to));
+        }
+        return count;
+    }
+    
+    private static int addPromotions(int from, int to, int moved, int captured, int[] moves, int count) {
+        moves[count++] = Move.encodePromotion(from, to, Bitboards.QUEEN, moved, captured);
+        moves[count++] = Move.encodePromotion(from, to, Bitboards.ROOK, moved, captured);
+        moves[count++] = Move.encodePromotion(from, to, Bitboards.BISHOP, moved, captured);
+        moves[count++] = Move.encodePromotion(from, to, Bitboards.KNIGHT, moved, captured);
+        return count;
+    }
+}
@@ -0,0 +1,88 @@
+package smartchess;
+
+// MoveHistoryModel.java - List model of a game's moves, one row per ply
+//
+// The model mirrors a ChessBoard's move history. sync() compares the two
+// and applies the difference as at most one removal and one addition, so a
+// loaded game or a long engine line arrives as a single event, not one per
+// move. Moves past the board's current ply are kept while they still
+// agree with it, which lets the view seek back and forward through a game;
+// playing a different move cuts them off. Row text is built once per move
+// and JList only renders the visible rows.
+import javax.swing.AbstractListModel;
+import java.util.Arrays;
+
+public class MoveHistoryModel extends AbstractListModel<String> {
+    private int[] moves = new int[256];
+    private String[] labels = new String[256];
+    private int size;
+    
+    @Override
+    public int getSize() {
+        return size;
+    }
+    
+    // Numbered SAN, e.g. "12. Nf3" or "12... e5+"
+    @Override
+    public String getElementAt(int index) {
+        return labels[index];
+    }
+    
+    // Packed move played at the given ply
+    public int getMove(int ply) {
+        return moves[ply];
+    }
+    
+    // Makes the model agree with board's history. Rows beyond the board's
+    // ply survive if the board has not played anything different.
+    public void sync(ChessBoard board) {
+        int plies = board.getPly();
+        int common = 0;
+        while (common < size && common < plies && moves[common] == board.moveAt(common)) {
+            common++;
+        }
+        if (common < plies && common < size) {
+            truncate(common);
+        }
+        if (plies > size) {
+            append(board, size);
+        }
+    }
+    
+    // Drops every row from ply on
+    public void truncate(int ply) {
+        if (ply >= size) return;
+        int removed = size;
+        Arrays.fill(labels, ply, size, null);
+        size = ply;
+        fireIntervalRemoved(this, ply, removed - 1);
+    }
+    
+    public void clear() {
+        truncate(0);
+    }
+    
+    // Adds board's moves from ply on, labelled from a copy walked back there
+    private void append(ChessBoard board, int from) {
+        int plies = board.getPly();
+        if (plies > moves.length) {
+            int capacity = Math.max(plies, moves.length * 2);
+            moves = Arrays.copyOf(moves, capacity);
+            labels = Arrays.copyOf(labels, capacity);
+        }
+        ChessBoard replay = new ChessBoard(board);
+        for (int i = plies; i > from; i--) {
+            replay.unmakeMove();
+        }
+        int[] buffer = new int[MoveGenerator.MAX_MOVES];
+        for (int i = from; i < plies; i++) {
+            int move = board.moveAt(i);
+            String number = replay.getFullmoveNumber() + (replay.isWhiteTurn() ? ". " : "... ");
+            moves[i] = move;
+            labels[i] = number + San.toSan(replay, move, buffer);
+            replay.makeMove(move);
+        }
+        size = plies;
+        fireIntervalAdded(this, from, plies - 1);
+    }
+}
@@ -0,0 +1,361 @@
+package smartchess;
+
+// OpeningBook.java - Memory-mapped opening book with binary-search lookup
+//
+// A book file is a sorted table of fixed-size entries, one per position and
+// move seen in the source games within the first few plies:
+//   16-byte header ('S' 'C' 'B' 'K', version, 3 reserved, entry count)
+//   12 bytes per entry: Zobrist key (8), move as in GameCodec (2), weight (2)
+// Entries are ordered by key and then move, so all moves of a position are
+// adjacent and found with one binary search in the mapped file. Weights
+// count how often the move was played, scaled per position to fit 16 bits.
+//
+// Usage: OpeningBook <out.book> (--pgn file | --archive file)
+//                    [--plies N] [--min-count N] [--threads N]
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+public final class OpeningBook {
+    static final int VERSION = 1;
+    public static final int DEFAULT_PLIES = 20;
+    
+    private static final byte[] MAGIC = {'S', 'C', 'B', 'K'};
+    private static final int HEADER_BYTES = 16;
+    private static final int ENTRY_BYTES = 12;
+    private static final int MAX_WEIGHT = 0xFFFF;
+    
+    private final MappedByteBuffer entries;
+    private final int count;
+    
+    private OpeningBook(MappedByteBuffer entries, int count) {
+        this.entries = entries;
+        this.count = count;
+    }
+    
+    public static OpeningBook open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES || size > Integer.MAX_VALUE) {
+                throw new IOException("Bad opening book size: " + size + " bytes");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0L, size);
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (map.get(i) != MAGIC[i]) {
+                    throw new IOException("Not a SmartChess opening book");
+                }
+            }
+            int version = map.get(MAGIC.length) & 0xFF;
+            if (version != VERSION) {
+                throw new IOException("Unsupported opening book version " + version);
+            }
+            long entryCount = map.getLong(8);
+            if (entryCount < 0 || HEADER_BYTES + entryCount * ENTRY_BYTES != size) {
+                throw new IOException("Opening book entry count does not match its size");
+            }
+            return new OpeningBook(map, (int) entryCount);
+        }
+    }
+    
+    public int size() {
+        return count;
+    }
+    
+    // Legal book moves for board's position with their weights; returns how
+    // many were found. A stored move that is not legal (a key collision) is
+    // skipped. Safe to call from several threads.
+    public int probe(ChessBoard board, int[] moves, int[] weights) {
+        long key = board.getZobristKey();
+        int[] scratch = new int[MoveGenerator.MAX_MOVES];
+        int found = 0;
+        for (int i = lowerBound(key); i < count && keyAt(i) == key; i++) {
+            int base = HEADER_BYTES + i * ENTRY_BYTES;
+            int move = GameCodec.findMove(board, entries.getShort(base + 8) & 0xFFFF, scratch);
+            if (move != 0) {
+                moves[found] = move;
+                weights[found++] = entries.getShort(base + 10) & 0xFFFF;
+            }
+        }
+        return found;
+    }
+    
+    // Most played book move, or 0 when the position is not in the book
+    public int bestMove(ChessBoard board) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int[] weights = new int[MoveGenerator.MAX_MOVES];
+        int found = probe(board, moves, weights);
+        int best = 0;
+        int bestWeight = -1;
+        for (int i = 0; i < found; i++) {
+            if (weights[i] > bestWeight) {
+                best = moves[i];
+                bestWeight = weights[i];
+            }
+        }
+        return best;
+    }
+    
+    // Book move picked with probability proportional to its weight, or 0
+    public int pickMove(ChessBoard board, Random random) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int[] weights = new int[MoveGenerator.MAX_MOVES];
+        int found = probe(board, moves, weights);
+        long total = 0L;
+        for (int i = 0; i < found; i++) {
+            total += weights[i];
+        }
+        if (total == 0) return found > 0 ? moves[0] : 0;
+        long pick = (long) (random.nextDouble() * total);
+        for (int i = 0; i < found; i++) {
+            pick -= weights[i];
+            if (pick < 0) return moves[i];
+        }
+        return moves[found - 1];
+    }
+    
+    // Search result for a book move, or null so the caller searches instead
+    SearchResult toResult(ChessBoard board) {
+        int move = bestMove(board);
+        return move == 0 ? null : new SearchResult(move, 0, 0, 0L, 0L, new int[] {move}, true);
+    }
+    
+    private long keyAt(int index) {
+        return entries.getLong(HEADER_BYTES + index * ENTRY_BYTES);
+    }
+    
+    // First entry whose key is not below key
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keyAt(mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+    
+    // Counts (position, move) pairs from games, then writes a sorted book
+    public static final class Builder {
+        private final int maxPlies;
+        private long[] keys = new long[1 << 16];
+        private int[] moves = new int[1 << 16]; // stored move + 1; 0 marks a free slot
+        private int[] weights = new int[1 << 16];
+        private int size;
+        private final ChessBoard replay = new ChessBoard();
+        
+        public Builder(int maxPlies) {
+            this.maxPlies = maxPlies;
+        }
+        
+        // Counts the opening of board's game. The history is consumed: the
+        // board is left at its first position.
+        public void add(ChessBoard board) {
+            for (int i = board.getPly() - 1; i >= 0; i--) {
+                int move = board.moveAt(i);
+                board.unmakeMove();
+                if (i < maxPlies) {
+                    count(board.getZobristKey(), GameCodec.packMove(move));
+                }
+            }
+        }
+        
+        public void add(PgnGame game) {
+            game.replay(replay);
+            add(replay);
+        }
+        
+        private void count(long key, int packed) {
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = slot(key, packed, mask);
+            while (moves[slot] != 0 && (keys[slot] != key || moves[slot] != packed + 1)) {
+                slot = (slot + 1) & mask;
+            }
+            if (moves[slot] == 0) {
+                keys[slot] = key;
+                moves[slot] = packed + 1;
+                size++;
+            }
+            weights[slot]++;
+        }
+        
+        private static int slot(long key, int packed, int mask) {
+            long h = (key ^ packed * 0x9E3779B97F4A7C15L) * 0xBF58476D1CE4E5B9L;
+            return (int) (h >>> 32) & mask;
+        }
+        
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldMoves = moves;
+            int[] oldWeights = weights;
+            keys = new long[oldKeys.length * 2];
+            moves = new int[oldKeys.length * 2];
+            weights = new int[oldKeys.length * 2];
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldMoves[i] == 0) continue;
+                int slot = slot(oldKeys[i], oldMoves[i] - 1, mask);
+                while (moves[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                moves[slot] = oldMoves[i];
+                weights[slot] = oldWeights[i];
+            }
+        }
+        
+        // Writes every pair seen at least minCount times; returns the entry count
+        public long write(Path path, int minCount) throws IOException {
+            long[] sortedKeys = new long[size];
+            int[] sortedMoves = new int[size];
+            int[] sortedWeights = new int[size];
+            int n = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (moves[i] != 0 && weights[i] >= minCount) {
+                    sortedKeys[n] = keys[i];
+                    sortedMoves[n] = moves[i] - 1;
+                    sortedWeights[n++] = weights[i];
+                }
+            }
+            sort(sortedKeys, sortedMoves, sortedWeights, 0, n - 1);
+            
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer out = ByteBuffer.allocate(1 << 16);
+                out.put(MAGIC).put((byte) VERSION).position(8);
+                out.putLong(n);
+                for (int start = 0; start < n; ) {
+                    // Scale each position's weights separately to keep their ratios
+                    int end = start;
+                    int max = 0;
+                    while (end < n && sortedKeys[end] == sortedKeys[start]) {
+                        max = Math.max(max, sortedWeights[end++]);
+                    }
+                    for (int i = start; i < end; i++) {
+                        int weight = max <= MAX_WEIGHT ? sortedWeights[i]
+                                   : (int) Math.max(1L, (long) sortedWeights[i] * MAX_WEIGHT / max);
+                        if (out.remaining() < ENTRY_BYTES) {
+                            drain(channel, out);
+                        }
+                        out.putLong(sortedKeys[i]).putShort((short) sortedMoves[i]).putShort((short) weight);
+                    }
+                    start = end;
+                }
+                drain(channel, out);
+            }
+            return n;
+        }
+        
+        private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+        
+        // Quicksort of the three parallel arrays by key, then move
+        private static void sort(long[] k, int[] m, int[] w, int low, int high) {
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                long pivotKey = k[mid];
+                int pivotMove = m[mid];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (compare(k[i], m[i], pivotKey, pivotMove) < 0) i++;
+                    while (compare(k[j], m[j], pivotKey, pivotMove) > 0) j--;
+                    if (i <= j) {
+                        swap(k, m, w, i++, j--);
+                    }
+                }
+                // Recurse into the smaller half to bound the stack depth
+                if (j - low < high - i) {
+                    sort(k, m, w, low, j);
+                    low = i;
+                } else {
+                    sort(k, m, w, i, high);
+                    high = j;
+                }
+            }
+        }
+        
+        private static int compare(long keyA, int moveA, long keyB, int moveB) {
+            int byKey = Long.compare(keyA, keyB);
+            return byKey != 0 ? byKey : Integer.compare(moveA, moveB);
+        }
+        
+        private static void swap(long[] k, int[] m, int[] w, int a, int b) {
+            long key = k[a];
+            k[a] = k[b];
+            k[b] = key;
+            int move = m[a];
+            m[a] = m[b];
+            m[b] = move;
+            int weight = w[a];
+            w[a] = w[b];
+            w[b] = weight;
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: OpeningBook <out.book> (--pgn file | --archive file) "
+                             + "[--plies N] [--min-count N] [--threads N]");
+            System.exit(2);
+        }
+        Path pgn = null;
+        Path archivePath = null;
+        int plies = DEFAULT_PLIES;
+        int minCount = 1;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--pgn" -> pgn = Paths.get(args[++i]);
+                case "--archive" -> archivePath = Paths.get(args[++i]);
+                case "--plies" -> plies = Integer.parseInt(args[++i]);
+                case "--min-count" -> minCount = Integer.parseInt(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+        
+        long start = System.nanoTime();
+        Builder builder = new Builder(plies);
+        long games;
+        if (pgn != null) {
+            games = PgnReader.read(pgn, threads, game -> {
+                if (!game.hasError()) builder.add(game);
+            });
+        } else if (archivePath != null) {
+            try (GameArchive archive = GameArchive.open(archivePath)) {
+                ChessBoard board = new ChessBoard();
+                archive.forEachGame(board, id -> builder.add(board));
+                games = archive.size();
+            }
+        } else {
+            System.err.println("Give --pgn or --archive");
+            System.exit(2);
+            return;
+        }
+        long entries = builder.write(Paths.get(args[0]), minCount);
+        System.out.println("Games: " + games);
+        System.out.println("Entries: " + entries);
+        System.out.println("Time: " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
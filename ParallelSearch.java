@@ -0,0 +1,163 @@
+package smartchess;
+
+// ParallelSearch.java - Lazy SMP: several searches sharing one transposition table
+//
+// The calling thread runs the main search; helper threads search their own
+// copies of the position from staggered start depths and communicate only
+// through the shared table. When the main search finishes, helpers are
+// stopped and the deepest completed result is reported, with nodes counted
+// across all threads.
+//
+// Helper searches and their threads are kept from one call to the next,
+// growing to the largest thread count asked for, so many short searches do
+// not pay for thread start-up each time. close() ends the helper threads.
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ParallelSearch implements AutoCloseable {
+    private final TranspositionTable table;
+    private final Search mainSearch;
+    private final ThreadPoolExecutor workers;
+    private Search[] helpers = new Search[0];
+    private OpeningBook book;
+    private Tablebase tablebase;
+    private volatile Search main;
+    private volatile boolean stopRequested;
+    
+    public ParallelSearch(TranspositionTable table) {
+        this.table = table;
+        this.mainSearch = new Search(table);
+        AtomicInteger count = new AtomicInteger();
+        this.workers = (ThreadPoolExecutor) Executors.newFixedThreadPool(1, runnable -> {
+            Thread thread = new Thread(runnable, "smartchess-search-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    public TranspositionTable getTable() {
+        return table;
+    }
+    
+    // Positions found in book are answered with the book move, without searching
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+    
+    // Passed on to the main search and every helper
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+    
+    // One search at a time; stop() may be called from any thread
+    public synchronized SearchResult search(ChessBoard position, SearchLimits limits, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Thread count must be at least 1");
+        }
+        if (book != null) {
+            SearchResult bookResult = book.toResult(position);
+            if (bookResult != null) {
+                stopRequested = false;
+                return bookResult;
+            }
+        }
+        
+        long start = System.nanoTime();
+        table.newSearch();
+        ChessBoard snapshot = new ChessBoard(position);
+        
+        ensureHelpers(threads - 1);
+        @SuppressWarnings("unchecked")
+        Future<SearchResult>[] helperResults = new Future[threads - 1];
+        SearchLimits helperLimits = new SearchLimits(limits.getMaxDepth(), Long.MAX_VALUE, limits.getMaxTimeMillis());
+        // Any stop these still hold was meant for the previous call
+        mainSearch.clearStop();
+        for (int i = 0; i < helperResults.length; i++) {
+            Search helper = helpers[i];
+            helper.clearStop();
+            int startDepth = 1 + (i + 1) % 2;
+            helper.setTablebase(tablebase);
+            helperResults[i] = workers.submit(() -> helper.run(snapshot, helperLimits, startDepth));
+        }
+        
+        mainSearch.setTablebase(tablebase);
+        main = mainSearch;
+        // A stop() that came before main was set is caught here; Search keeps it until run ends
+        if (stopRequested) mainSearch.stop();
+        SearchResult best = mainSearch.run(snapshot, limits, 1);
+        
+        long nodes = mainSearch.getNodes();
+        for (int i = 0; i < helperResults.length; i++) {
+            SearchResult result = joinHelper(helpers[i], helperResults[i]);
+            nodes += helpers[i].getNodes();
+            if (result.getDepth() > best.getDepth() && result.hasMove()) {
+                best = result;
+            }
+        }
+        
+        long elapsed = (System.nanoTime() - start) / 1_000_000L;
+        main = null;
+        stopRequested = false;
+        return new SearchResult(best.getBestMove(), best.getScore(), best.getDepth(), nodes, elapsed,
+                                best.getPrincipalVariation());
+    }
+    
+    // Stops the main search; helpers follow as soon as it returns. As with
+    // Search, a stop that comes before the search starts is kept and ends it
+    // at once.
+    public void stop() {
+        stopRequested = true;
+        Search current = main;
+        if (current != null) {
+            current.stop();
+        }
+    }
+    
+    // Ends the helper threads; the object must not be used afterwards
+    @Override
+    public void close() {
+        stop();
+        workers.shutdownNow();
+    }
+    
+    // Grows the helper searches and the pool that runs them to count
+    private void ensureHelpers(int count) {
+        if (count <= helpers.length) return;
+        int old = helpers.length;
+        helpers = Arrays.copyOf(helpers, count);
+        for (int i = old; i < count; i++) {
+            helpers[i] = new Search(table);
+        }
+        // Maximum first, as the core size may not exceed it
+        workers.setMaximumPoolSize(count);
+        workers.setCorePoolSize(count);
+        workers.prestartAllCoreThreads();
+    }
+    
+    // The helper's result once it has stopped. The helper is reused by the
+    // next search, so an interrupt does not cut the wait short; it is passed on.
+    private static SearchResult joinHelper(Search helper, Future<SearchResult> result) {
+        // Kept by a helper that has not started yet, so one stop is enough
+        helper.stop();
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return result.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Helper search failed", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
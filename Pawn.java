@@ -17,7 +17,8 @@ class Pawn extends Piece {
         }
         
         // Move forward two squares from starting position
-        if (colDiff == 0 && rowDiff == 2 * direction && moveCount == 0) {
+        int startRow = isWhite ? 6 : 1;
+        if (colDiff == 0 && rowDiff == 2 * direction && from.row == startRow) {
             int middleRow = from.row + direction;
             return board.getPiece(middleRow, from.col) == null && 
                    board.getPiece(to.row, to.col) == null;
@@ -32,6 +33,9 @@ class Pawn extends Piece {
         return false;
     }
     
+    @Override
+    public int getType() { return Bitboards.PAWN; }
+    
     @Override
     public String getName() { return "Pawn"; }
     
@@ -0,0 +1,169 @@
+package smartchess;
+
+// Perft.java - Headless move-generation node counter
+//
+// Usage: Perft <depth> [--threads N] [--verify] [--fen FEN] [move ...]
+// Moves in coordinate notation (e2e4, e7e8q) are played from the start
+// position (or the FEN) first. Root moves are split across a ForkJoinPool and each
+// one's subtree count is printed ("divide"), followed by nodes per second.
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public final class Perft {
+    // Known leaf counts from the initial position, by depth
+    private static final long[] START_POSITION_NODES = {
+        1L, 20L, 400L, 8902L, 197281L, 4865609L, 119060324L, 3195901860L
+    };
+    
+    // Standard test positions exercising castling, en passant, promotion
+    // and pins, with their known leaf counts by depth
+    private static final String[] TEST_FENS = {
+        "r3k2r/p1ppqpb1/bn2pnp1/3PN3/1p2P3/2N2Q1p/PPPBBPPP/R3K2R w KQkq - 0 1",
+        "8/2p5/3p4/KP5r/1R3p1k/8/4P1P1/8 w - - 0 1",
+        "r3k2r/Pppp1ppp/1b3nbN/nP6/BBP1P3/q4N2/Pp1P2PP/R2Q1RK1 w kq - 0 1",
+        "rnbq1k1r/pp1Pbppp/2p5/8/2B5/8/PPP1NnPP/RNBQK2R w KQ - 1 8"
+    };
+    private static final long[][] TEST_FEN_NODES = {
+        {1L, 48L, 2039L, 97862L, 4085603L},
+        {1L, 14L, 191L, 2812L, 43238L, 674624L},
+        {1L, 6L, 264L, 9467L, 422333L},
+        {1L, 44L, 1486L, 62379L, 2103487L}
+    };
+    
+    private Perft() {
+    }
+    
+    public static long perft(ChessBoard board, int depth) {
+        return perft(board, depth, new int[Math.max(depth, 1)][MoveGenerator.MAX_MOVES]);
+    }
+    
+    private static long perft(ChessBoard board, int depth, int[][] buffers) {
+        if (depth == 0) return 1L;
+        
+        int[] moves = buffers[depth - 1];
+        int count = board.generateMoves(moves);
+        
+        // Legal moves at the last ply are leaves; no need to play them
+        if (depth == 1) return count;
+        
+        long nodes = 0L;
+        for (int i = 0; i < count; i++) {
+            board.makeMove(moves[i]);
+            nodes += perft(board, depth - 1, buffers);
+            board.unmakeMove();
+        }
+        return nodes;
+    }
+    
+    // Per-root-move subtree counts, computed in parallel on copies of the board
+    public static long[] divide(ChessBoard board, int depth, int[] rootMoves, int rootCount, ForkJoinPool pool) {
+        List<ForkJoinTask<Long>> tasks = new ArrayList<>();
+        for (int i = 0; i < rootCount; i++) {
+            int move = rootMoves[i];
+            ChessBoard copy = new ChessBoard(board);
+            tasks.add(pool.submit(() -> {
+                copy.makeMove(move);
+                return perft(copy, depth - 1);
+            }));
+        }
+        
+        long[] nodes = new long[rootCount];
+        for (int i = 0; i < rootCount; i++) {
+            nodes[i] = tasks.get(i).join();
+        }
+        return nodes;
+    }
+    
+    // Plays a move given in coordinate notation; returns false if it is not legal
+    public static boolean playCoordinateMove(ChessBoard board, String text) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int count = board.generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            if (Move.toCoordinate(moves[i]).equalsIgnoreCase(text)) {
+                board.makeMove(moves[i]);
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    public static void main(String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: Perft <depth> [--threads N] [--verify] [--fen FEN] [move ...]");
+            System.exit(2);
+        }
+        
+        int depth = Integer.parseInt(args[0]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean verify = false;
+        ChessBoard board = new ChessBoard();
+        
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--verify")) {
+                verify = true;
+            } else if (args[i].equals("--fen")) {
+                try {
+                    board.setFen(args[++i]);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(2);
+                }
+            } else if (!playCoordinateMove(board, args[i])) {
+                System.err.println("Illegal move: " + args[i]);
+                System.exit(2);
+            }
+        }
+        
+        if (verify) {
+            System.exit(verifyPositions(depth) ? 0 : 1);
+        }
+        
+        int[] rootMoves = new int[MoveGenerator.MAX_MOVES];
+        int rootCount = depth > 0 ? board.generateMoves(rootMoves) : 0;
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        
+        long start = System.nanoTime();
+        long total = 0L;
+        if (depth > 0) {
+            long[] nodes = divide(board, depth, rootMoves, rootCount, pool);
+            for (int i = 0; i < rootCount; i++) {
+                System.out.println(Move.toCoordinate(rootMoves[i]) + ": " + nodes[i]);
+                total += nodes[i];
+            }
+        } else {
+            total = 1L;
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+        
+        System.out.println();
+        System.out.println("Moves: " + rootCount);
+        System.out.println("Nodes: " + total);
+        System.out.println("Time: " + elapsed / 1_000_000 + " ms");
+        System.out.println("NPS: " + (elapsed > 0 ? total * 1_000_000_000L / elapsed : 0));
+    }
+    
+    private static boolean verifyPositions(int maxDepth) {
+        boolean ok = verifyPosition(new ChessBoard(), START_POSITION_NODES, maxDepth);
+        for (int i = 0; i < TEST_FENS.length; i++) {
+            System.out.println(TEST_FENS[i]);
+            ok &= verifyPosition(new ChessBoard(TEST_FENS[i]), TEST_FEN_NODES[i], maxDepth);
+        }
+        return ok;
+    }
+    
+    private static boolean verifyPosition(ChessBoard board, long[] expected, int maxDepth) {
+        boolean ok = true;
+        for (int depth = 1; depth <= maxDepth && depth < expected.length; depth++) {
+            long nodes = perft(board, depth);
+            boolean match = nodes == expected[depth];
+            System.out.println("depth " + depth + ": " + nodes + (match ? " ok" : " expected " + expected[depth]));
+            ok &= match;
+        }
+        return ok;
+    }
+}
@@ -0,0 +1,67 @@
+package smartchess;
+
+// PgnGame.java - Tags and mainline moves of one parsed PGN game
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PgnGame {
+    private final Map<String, String> tags;
+    private final int[] moves;
+    private final String result;
+    private final String error;
+    
+    public PgnGame(Map<String, String> tags, int[] moves, String result, String error) {
+        this.tags = Collections.unmodifiableMap(new LinkedHashMap<>(tags));
+        this.moves = moves;
+        this.result = result;
+        this.error = error;
+    }
+    
+    public String getTag(String name) {
+        return tags.get(name);
+    }
+    
+    // All tags in file order
+    public Map<String, String> getTags() {
+        return tags;
+    }
+    
+    public int getMoveCount() {
+        return moves.length;
+    }
+    
+    // Packed move played at the given ply of the mainline
+    public int getMove(int ply) {
+        return moves[ply];
+    }
+    
+    // Game termination marker from the movetext: 1-0, 0-1, 1/2-1/2 or *
+    public String getResult() {
+        return result;
+    }
+    
+    // Why parsing stopped early, or null if every move was read; the moves
+    // before the problem are still available
+    public String getError() {
+        return error;
+    }
+    
+    public boolean hasError() {
+        return error != null;
+    }
+    
+    // Replaces board's position and history with this game's mainline,
+    // starting from the FEN tag if there is one
+    public void replay(ChessBoard board) {
+        String fen = tags.get("FEN");
+        if (fen != null) {
+            board.setFen(fen);
+        } else {
+            board.initializeBoard();
+        }
+        for (int move : moves) {
+            board.makeMove(move);
+        }
+    }
+}
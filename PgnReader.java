@@ -0,0 +1,313 @@
+package smartchess;
+
+// PgnReader.java - Streaming, parallel PGN import
+//
+// The input is read line by line and cut into games at the first tag line
+// after a game's movetext, so files of any size are never held in memory.
+// Games are grouped into batches and parsed on a thread pool; at most a
+// few batches per thread are in flight, and parsed games are handed to
+// the consumer on the calling thread in file order.
+//
+// Usage: PgnReader <games.pgn> [--threads N] [--archive file]
+// Parses a file, optionally appending every game to a GameArchive, and
+// reports games per second.
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+public final class PgnReader {
+    private static final int BATCH_GAMES = 256;
+    private static final int BATCHES_PER_THREAD = 4;
+    private static final int READ_BUFFER_CHARS = 1 << 20;
+    
+    private PgnReader() {
+    }
+    
+    public static long read(Path path, int threads, Consumer<PgnGame> consumer) throws IOException {
+        // InputStreamReader replaces bytes that are not valid UTF-8 instead of failing
+        try (Reader in = new InputStreamReader(Files.newInputStream(path), StandardCharsets.UTF_8)) {
+            return read(in, threads, consumer);
+        }
+    }
+    
+    // Parses every game from in and returns how many were read
+    public static long read(Reader in, int threads, Consumer<PgnGame> consumer) throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        ArrayDeque<Future<List<PgnGame>>> pending = new ArrayDeque<>();
+        int maxPending = Math.max(1, threads) * BATCHES_PER_THREAD;
+        long games = 0L;
+        try {
+            BufferedReader reader = new BufferedReader(in, READ_BUFFER_CHARS);
+            List<String> batch = new ArrayList<>(BATCH_GAMES);
+            StringBuilder game = new StringBuilder();
+            boolean inMovetext = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.startsWith("%")) continue; // Escape lines are ignored
+                
+                if (trimmed.startsWith("[") && inMovetext) {
+                    batch.add(game.toString());
+                    game.setLength(0);
+                    inMovetext = false;
+                    if (batch.size() == BATCH_GAMES) {
+                        games += submit(pool, pending, batch, maxPending, consumer);
+                        batch = new ArrayList<>(BATCH_GAMES);
+                    }
+                }
+                if (!trimmed.isEmpty() && !trimmed.startsWith("[")) {
+                    inMovetext = true;
+                }
+                game.append(line).append('\n');
+            }
+            if (!game.toString().isBlank()) {
+                batch.add(game.toString());
+            }
+            if (!batch.isEmpty()) {
+                games += submit(pool, pending, batch, 0, consumer);
+            }
+            while (!pending.isEmpty()) {
+                games += deliver(pending.poll(), consumer);
+            }
+            return games;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    // Queues a batch, then delivers finished batches until at most
+    // maxPending remain; returns the number of games delivered
+    private static long submit(ExecutorService pool, ArrayDeque<Future<List<PgnGame>>> pending,
+                               List<String> batch, int maxPending, Consumer<PgnGame> consumer) throws IOException {
+        pending.add(pool.submit(() -> {
+            Parser parser = new Parser();
+            List<PgnGame> parsed = new ArrayList<>(batch.size());
+            for (String text : batch) {
+                parsed.add(parser.parse(text));
+            }
+            return parsed;
+        }));
+        long delivered = 0L;
+        while (pending.size() > maxPending) {
+            delivered += deliver(pending.poll(), consumer);
+        }
+        return delivered;
+    }
+    
+    private static long deliver(Future<List<PgnGame>> future, Consumer<PgnGame> consumer) throws IOException {
+        List<PgnGame> parsed;
+        try {
+            parsed = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while parsing PGN", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("PGN parsing failed", e.getCause());
+        }
+        for (PgnGame game : parsed) {
+            consumer.accept(game);
+        }
+        return parsed.size();
+    }
+    
+    // Parses the text of a single game
+    public static PgnGame parse(String text) {
+        return new Parser().parse(text);
+    }
+    
+    // Reusable per-thread parsing state: one board and move buffer serve
+    // every game in a batch
+    private static final class Parser {
+        private final ChessBoard board = new ChessBoard();
+        private final int[] buffer = new int[MoveGenerator.MAX_MOVES];
+        private int[] moves = new int[256];
+        
+        PgnGame parse(String text) {
+            Map<String, String> tags = new LinkedHashMap<>();
+            board.initializeBoard();
+            int count = 0;
+            String result = "*";
+            String error = null;
+            
+            int pos = 0;
+            int length = text.length();
+            int variationDepth = 0;
+            boolean started = false;
+            while (pos < length) {
+                char c = text.charAt(pos);
+                if (Character.isWhitespace(c)) {
+                    pos++;
+                } else if (c == '[' && variationDepth == 0 && count == 0) {
+                    int close = readTag(text, pos, tags);
+                    pos = close < 0 ? length : close;
+                } else if (c == '{') {
+                    int close = text.indexOf('}', pos);
+                    pos = close < 0 ? length : close + 1;
+                } else if (c == ';') {
+                    int close = text.indexOf('\n', pos);
+                    pos = close < 0 ? length : close + 1;
+                } else if (c == '(') {
+                    variationDepth++;
+                    pos++;
+                } else if (c == ')') {
+                    variationDepth = Math.max(0, variationDepth - 1);
+                    pos++;
+                } else {
+                    int end = pos;
+                    while (end < length && !isDelimiter(text.charAt(end))) {
+                        end++;
+                    }
+                    String token = text.substring(pos, end);
+                    pos = Math.max(end, pos + 1);
+                    if (variationDepth > 0 || error != null || token.startsWith("$")) {
+                        continue;
+                    }
+                    if (isResult(token)) {
+                        result = token;
+                        continue;
+                    }
+                    // Strip a move number such as "12." or "12..." from the token
+                    int start = 0;
+                    while (start < token.length() && Character.isDigit(token.charAt(start))) start++;
+                    if (start > 0 && start < token.length() && token.charAt(start) == '.') {
+                        while (start < token.length() && token.charAt(start) == '.') start++;
+                        token = token.substring(start);
+                    } else if (start == token.length() || token.charAt(0) == '.') {
+                        continue;
+                    }
+                    if (token.isEmpty()) continue;
+                    
+                    if (count == 0 && !started) {
+                        started = true;
+                        String fen = tags.get("FEN");
+                        if (fen != null && !setUp(fen)) {
+                            error = "Bad FEN tag " + fen;
+                            continue;
+                        }
+                    }
+                    int move = San.parse(board, token, buffer);
+                    if (move == 0) {
+                        error = "Illegal or ambiguous move " + token + " at ply " + (count + 1);
+                        continue;
+                    }
+                    board.makeMove(move);
+                    if (count == moves.length) {
+                        moves = Arrays.copyOf(moves, count * 2);
+                    }
+                    moves[count++] = move;
+                }
+            }
+            if (error == null && count == 0 && tags.isEmpty()) {
+                error = "Empty game";
+            }
+            return new PgnGame(tags, Arrays.copyOf(moves, count), result, error);
+        }
+        
+        private boolean setUp(String fen) {
+            try {
+                board.setFen(fen);
+                return true;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+        
+        private static boolean isDelimiter(char c) {
+            return Character.isWhitespace(c) || c == '{' || c == '(' || c == ')' || c == ';' || c == '[';
+        }
+        
+        private static boolean isResult(String token) {
+            return token.equals("1-0") || token.equals("0-1") || token.equals("1/2-1/2") || token.equals("*");
+        }
+        
+        // Reads [Name "value"] starting at pos; returns the index after it
+        private static int readTag(String text, int pos, Map<String, String> tags) {
+            int quote = text.indexOf('"', pos);
+            int lineEnd = text.indexOf('\n', pos);
+            if (lineEnd < 0) lineEnd = text.length();
+            if (quote < 0 || quote > lineEnd) {
+                return lineEnd;
+            }
+            String name = text.substring(pos + 1, quote).trim();
+            StringBuilder value = new StringBuilder();
+            int i = quote + 1;
+            for (; i < lineEnd; i++) {
+                char c = text.charAt(i);
+                if (c == '\\' && i + 1 < lineEnd) {
+                    value.append(text.charAt(++i));
+                } else if (c == '"') {
+                    break;
+                } else {
+                    value.append(c);
+                }
+            }
+            tags.put(name, value.toString());
+            int close = text.indexOf(']', i);
+            return close < 0 || close > lineEnd ? lineEnd : close + 1;
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: PgnReader <games.pgn> [--threads N] [--archive file]");
+            System.exit(2);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path archivePath = null;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("--archive")) {
+                archivePath = Paths.get(args[++i]);
+            }
+        }
+        
+        GameArchive archive = archivePath == null ? null : GameArchive.open(archivePath);
+        ChessBoard board = new ChessBoard();
+        long[] errors = new long[1];
+        long start = System.nanoTime();
+        long games;
+        try {
+            games = read(Paths.get(args[0]), threads, game -> {
+                if (game.hasError()) {
+                    errors[0]++;
+                } else if (archive != null) {
+                    game.replay(board);
+                    try {
+                        archive.append(board);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            });
+        } finally {
+            if (archive != null) archive.close();
+        }
+        long elapsed = System.nanoTime() - start;
+        
+        System.out.println("Games: " + games);
+        System.out.println("Errors: " + errors[0]);
+        System.out.println("Time: " + elapsed / 1_000_000 + " ms");
+        System.out.println("Games/s: " + (elapsed > 0 ? games * 1_000_000_000L / elapsed : 0));
+    }
+}
@@ -0,0 +1,111 @@
+package smartchess;
+
+// PgnWriter.java - PGN export of a ChessBoard's game history
+//
+// Writes the seven tag roster (missing tags become "?"), SetUp and FEN
+// tags for games that do not start from the initial position, any extra
+// tags, then the movetext in SAN with move numbers, wrapped at 79 columns as
+// the PGN export format asks. Games are written straight to the Writer,
+// so any number can be streamed into one file.
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+public final class PgnWriter {
+    private static final String[] ROSTER = {"Event", "Site", "Date", "Round", "White", "Black", "Result"};
+    private static final int LINE_WIDTH = 79;
+    private static final long STANDARD_START_KEY = new ChessBoard().getZobristKey();
+    
+    private final Writer out;
+    private final int[] buffer = new int[MoveGenerator.MAX_MOVES];
+    
+    public PgnWriter(Writer out) {
+        this.out = out;
+    }
+    
+    // Writes board's history from its first position, followed by a blank line
+    public void write(Map<String, String> tags, ChessBoard board) throws IOException {
+        ChessBoard replay = GameCodec.startOf(board);
+        boolean setUp = replay.getZobristKey() != STANDARD_START_KEY || replay.getHalfmoveClock() != 0
+                || replay.getFullmoveNumber() != 1;
+        String result = tags.get("Result");
+        if (result == null) {
+            result = resultOf(board);
+        }
+        
+        for (String name : ROSTER) {
+            String value = name.equals("Result") ? result : tags.get(name);
+            writeTag(name, value != null ? value : name.equals("Date") ? "????.??.??" : "?");
+        }
+        if (setUp) {
+            writeTag("SetUp", "1");
+            writeTag("FEN", replay.getFen());
+        }
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            if (!isRosterTag(tag.getKey()) && !tag.getKey().equals("SetUp") && !tag.getKey().equals("FEN")) {
+                writeTag(tag.getKey(), tag.getValue());
+            }
+        }
+        out.write('\n');
+        
+        StringBuilder line = new StringBuilder(LINE_WIDTH + 16);
+        int plies = board.getPly();
+        for (int i = 0; i < plies; i++) {
+            int move = board.moveAt(i);
+            String token = San.toSan(replay, move, buffer);
+            if (replay.isWhiteTurn()) {
+                token = replay.getFullmoveNumber() + ". " + token;
+            } else if (i == 0) {
+                token = replay.getFullmoveNumber() + "... " + token;
+            }
+            appendToken(line, token);
+            replay.makeMove(move);
+        }
+        appendToken(line, result);
+        out.write(line.toString());
+        out.write("\n\n");
+    }
+    
+    public void flush() throws IOException {
+        out.flush();
+    }
+    
+    // Result implied by the final position, or "*" if the game is not over
+    static String resultOf(ChessBoard board) {
+        GameStatus status = board.evaluateStatus();
+        if (status == GameStatus.CHECKMATE) {
+            return board.isWhiteTurn() ? "0-1" : "1-0";
+        }
+        if (status == GameStatus.STALEMATE) {
+            return "1/2-1/2";
+        }
+        return "*";
+    }
+    
+    private void appendToken(StringBuilder line, String token) throws IOException {
+        if (line.length() > 0 && line.length() + 1 + token.length() > LINE_WIDTH) {
+            out.write(line.toString());
+            out.write('\n');
+            line.setLength(0);
+        }
+        if (line.length() > 0) {
+            line.append(' ');
+        }
+        line.append(token);
+    }
+    
+    private void writeTag(String name, String value) throws IOException {
+        out.write('[');
+        out.write(name);
+        out.write(" \"");
+        out.write(value.replace("\\", "\\\\").replace("\"", "\\\""));
+        out.write("\"]\n");
+    }
+    
+    private static boolean isRosterTag(String name) {
+        for (String roster : ROSTER) {
+            if (roster.equals(name)) return true;
+        }
+        return false;
+    }
+}
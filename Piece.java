@@ -2,34 +2,28 @@ package smartchess;
 
 import java.io.Serializable;
 
+// Pieces are immutable: ChessBoard hands out one shared instance per piece
+// code to every board and thread, so a piece holds no per-game state
 public abstract class Piece implements Serializable {
-    private static final long serialVersionUID = 1L;
+    private static final long serialVersionUID = 2L;
     
-    protected boolean isWhite;
-    protected int moveCount;
+    protected final boolean isWhite;
     
     public Piece(boolean isWhite) {
         this.isWhite = isWhite;
-        this.moveCount = 0;
     }
     
     public boolean isWhite() {
         return isWhite;
     }
     
-    public int getMoveCount() {
-        return moveCount;
-    }
-    
-    public void incrementMoveCount() {
-        moveCount++;
-    }
-    
-    public void decrementMoveCount() {
-        if (moveCount > 0) moveCount--;
+    // Index of this piece's bitboard in ChessBoard (type plus color offset)
+    public int getCode() {
+        return Bitboards.code(isWhite ? Bitboards.WHITE : Bitboards.BLACK, getType());
     }
     
     public abstract boolean isValidMove(Position from, Position to, ChessBoard board);
+    public abstract int getType();
     public abstract String getName();
     public abstract String getSymbol();
     public abstract String getUnicodeSymbol();
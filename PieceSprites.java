@@ -0,0 +1,64 @@
+package smartchess;
+
+// PieceSprites.java - Piece glyphs rasterized once per square size
+//
+// Laying out Unicode chess glyphs is far slower than copying an image, so
+// each piece is drawn once, shadow included, into a translucent image the
+// size of a square. Images are kept for the few most recent sizes, so
+// resizing the window does not grow the cache.
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class PieceSprites {
+    private static final int CACHED_SIZES = 4;
+    private static final Color SHADOW = new Color(0, 0, 0, 50);
+    
+    // Access-ordered, so the least recently drawn size is dropped first
+    private final Map<Integer, BufferedImage[]> bySize = new LinkedHashMap<>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, BufferedImage[]> eldest) {
+            return size() > CACHED_SIZES;
+        }
+    };
+    
+    // Image of the piece for squares of the given size in device pixels
+    BufferedImage get(Piece piece, int size) {
+        BufferedImage[] sprites = bySize.computeIfAbsent(size, s -> new BufferedImage[12]);
+        int code = piece.getCode();
+        if (sprites[code] == null) {
+            sprites[code] = render(piece, size);
+        }
+        return sprites[code];
+    }
+    
+    private static BufferedImage render(Piece piece, int size) {
+        BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        try {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            // Same proportions as the original 50pt glyph on a 70 pixel square
+            g2d.setFont(new Font("Serif", Font.PLAIN, Math.max(1, size * 5 / 7)));
+            
+            String symbol = piece.getUnicodeSymbol();
+            FontMetrics fm = g2d.getFontMetrics();
+            int x = (size - fm.stringWidth(symbol)) / 2;
+            int y = (size + fm.getAscent()) / 2 - size / 14;
+            int offset = Math.max(1, size / 35);
+            
+            g2d.setColor(SHADOW);
+            g2d.drawString(symbol, x + offset, y + offset);
+            g2d.setColor(piece.isWhite() ? Color.WHITE : Color.BLACK);
+            g2d.drawString(symbol, x, y);
+        } finally {
+            g2d.dispose();
+        }
+        return image;
+    }
+}
@@ -9,6 +9,15 @@ import java.io.Serializable;
 public class Position implements Serializable {
     private static final long serialVersionUID = 1L;
     
+    // One shared instance per square, so hot paths need not allocate
+    private static final Position[] SQUARES = new Position[64];
+    
+    static {
+        for (int sq = 0; sq < 64; sq++) {
+            SQUARES[sq] = new Position(sq >>> 3, sq & 7);
+        }
+    }
+    
     public final int row;
     public final int col;
     
@@ -17,6 +26,19 @@ public class Position implements Serializable {
         this.col = col;
     }
     
+    public static Position of(int row, int col) {
+        return SQUARES[row * 8 + col];
+    }
+    
+    // Square index as used by the bitboards: row * 8 + col
+    public static Position of(int square) {
+        return SQUARES[square];
+    }
+    
+    public int square() {
+        return row * 8 + col;
+    }
+    
     @Override
     public boolean equals(Object obj) {
         if (this == obj) return true;
@@ -0,0 +1,666 @@
+package smartchess;
+
+// PositionIndex.java - Which games reached a position, and what came next
+//
+// The index maps a Zobrist key to a posting list of every (game, ply)
+// where the position occurred, together with the move played from it. It
+// is built from replayed games, the same histories ChessBoard.movePiece
+// and makeMove record, and written as one file:
+//   24-byte header ('S' 'C' 'P' 'X', version, 3 reserved, position count,
+//                   offset of the key table)
+//   posting lists, one per position, ordered by game id and then ply:
+//     varint count, then per occurrence
+//       varint game id minus the previous one (the first is absolute)
+//       varint ply, minus the previous ply when the game id repeats
+//       move played next as in GameCodec (2), 0 when the game ended there
+//   key table: 16 bytes per position, Zobrist key (8) and offset of its
+//   posting list (8), sorted by key, plus one entry marking the end
+// Opening maps the key table and the posting lists, the lists in chunks of
+// about 1 GB that end on list boundaries, so a lookup is a binary search in
+// the key table and a slice of one chunk: a few page touches however many
+// games are indexed, and no mapping per query.
+//
+// The builder sorts fixed-size runs in memory and spills them to temporary
+// files next to the output, then merges the runs while writing, so
+// building needs memory for one run only.
+//
+// Usage: PositionIndex <index> (--archive file | --pgn file) [--threads N]
+//        PositionIndex <index> --query (--fen FEN | --moves "e4 e5 Nf3") [--limit N]
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+public final class PositionIndex implements Closeable {
+    static final int VERSION = 1;
+    
+    private static final byte[] MAGIC = {'S', 'C', 'P', 'X'};
+    private static final int HEADER_BYTES = 24;
+    private static final int KEY_ENTRY_BYTES = 16;
+    private static final long CHUNK_BYTES = 1L << 30;
+    // A posting packs game id, ply and next move into one long for sorting;
+    // the ply field holds 0..GameArchive.MAX_PLIES, so any archived game fits
+    private static final int MOVE_BITS = 16;
+    private static final int PLY_BITS = 32 - Integer.numberOfLeadingZeros(GameArchive.MAX_PLIES);
+    private static final long MAX_GAME_ID = (1L << (64 - 1 - PLY_BITS - MOVE_BITS)) - 1;
+    
+    private final FileChannel channel;
+    private final MappedByteBuffer keys;
+    private final long count;
+    // Posting list chunks and the file offset each one starts at
+    private final long[] chunkStarts;
+    private final MappedByteBuffer[] chunks;
+    
+    private PositionIndex(FileChannel channel, MappedByteBuffer keys, long count) throws IOException {
+        this.channel = channel;
+        this.keys = keys;
+        this.count = count;
+        
+        // Each chunk ends at the last list start within CHUNK_BYTES, so no
+        // list straddles two chunks; a longer list gets a chunk of its own
+        List<Long> starts = new ArrayList<>();
+        List<MappedByteBuffer> mapped = new ArrayList<>();
+        long end = offsetAt(count);
+        long start = count > 0 ? offsetAt(0) : end;
+        long next = 0;
+        while (start < end) {
+            long low = next + 1;
+            long high = count;
+            while (low < high) {
+                long mid = (low + high + 1) >>> 1;
+                if (offsetAt(mid) - start <= CHUNK_BYTES) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            long limit = offsetAt(low);
+            if (limit - start > Integer.MAX_VALUE) {
+                throw new IOException("Posting list at " + start + " is too large to map");
+            }
+            starts.add(start);
+            mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, start, limit - start));
+            next = low;
+            start = limit;
+        }
+        chunkStarts = new long[starts.size()];
+        for (int i = 0; i < chunkStarts.length; i++) {
+            chunkStarts[i] = starts.get(i);
+        }
+        chunks = mapped.toArray(new MappedByteBuffer[0]);
+    }
+    
+    public static PositionIndex open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            channel.read(header, 0L);
+            header.flip();
+            boolean valid = header.remaining() == HEADER_BYTES;
+            for (int i = 0; valid && i < MAGIC.length; i++) {
+                valid = header.get(i) == MAGIC[i];
+            }
+            if (!valid) {
+                throw new IOException("Not a SmartChess position index");
+            }
+            int version = header.get(MAGIC.length) & 0xFF;
+            if (version != VERSION) {
+                throw new IOException("Unsupported position index version " + version);
+            }
+            long positions = header.getLong(8);
+            long tableOffset = header.getLong(16);
+            long tableBytes = (positions + 1) * KEY_ENTRY_BYTES;
+            if (positions < 0 || tableOffset < HEADER_BYTES || tableOffset + tableBytes != channel.size()) {
+                throw new IOException("Position index table does not match its size");
+            }
+            if (tableBytes > Integer.MAX_VALUE) {
+                throw new IOException("Position index has too many positions: " + positions);
+            }
+            MappedByteBuffer table = channel.map(FileChannel.MapMode.READ_ONLY, tableOffset, tableBytes);
+            return new PositionIndex(channel, table, positions);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+    
+    // Number of distinct positions
+    public long size() {
+        return count;
+    }
+    
+    // One time a position occurred
+    public static final class Occurrence {
+        private final long gameId;
+        private final int ply;
+        private final int nextMove;
+        
+        Occurrence(long gameId, int ply, int nextMove) {
+            this.gameId = gameId;
+            this.ply = ply;
+            this.nextMove = nextMove;
+        }
+        
+        public long getGameId() {
+            return gameId;
+        }
+        
+        // Moves played before the position was reached
+        public int getPly() {
+            return ply;
+        }
+        
+        // Move as stored by GameCodec, 0 when the game ended here
+        public int getNextMove() {
+            return nextMove;
+        }
+    }
+    
+    // Every occurrence of board's position, ordered by game id and ply.
+    // Safe to call from several threads.
+    public List<Occurrence> find(ChessBoard board) throws IOException {
+        ByteBuffer postings = postings(board.getZobristKey());
+        if (postings == null) return new ArrayList<>();
+        int n = GameCodec.getVarint(postings);
+        List<Occurrence> found = new ArrayList<>(n);
+        long gameId = 0L;
+        int ply = 0;
+        for (int i = 0; i < n; i++) {
+            long delta = getVarlong(postings);
+            int plyValue = GameCodec.getVarint(postings);
+            ply = delta == 0 && i > 0 ? ply + plyValue : plyValue;
+            gameId += delta;
+            found.add(new Occurrence(gameId, ply, postings.getShort() & 0xFFFF));
+        }
+        return found;
+    }
+    
+    // Number of times board's position occurred, read from the list header only
+    public int count(ChessBoard board) throws IOException {
+        ByteBuffer postings = postings(board.getZobristKey());
+        return postings == null ? 0 : GameCodec.getVarint(postings);
+    }
+    
+    // Legal moves played from board's position, most frequent first, and how
+    // often each was played; returns how many were found. A stored move that
+    // is not legal here (a key collision) is skipped.
+    public int nextMoves(ChessBoard board, int[] moves, int[] counts) throws IOException {
+        // Counted by stored move first, so each is matched against the legal moves once
+        int found = 0;
+        for (Occurrence occurrence : find(board)) {
+            int packed = occurrence.getNextMove();
+            if (packed == 0) continue;
+            int i = 0;
+            while (i < found && moves[i] != packed) {
+                i++;
+            }
+            if (i == found) {
+                if (found == moves.length) continue;
+                moves[found] = packed;
+                counts[found++] = 0;
+            }
+            counts[i]++;
+        }
+        int[] scratch = new int[MoveGenerator.MAX_MOVES];
+        int legal = 0;
+        for (int i = 0; i < found; i++) {
+            int move = GameCodec.findMove(board, moves[i], scratch);
+            if (move != 0) {
+                moves[legal] = move;
+                counts[legal++] = counts[i];
+            }
+        }
+        found = legal;
+        // Few distinct moves per position, so an insertion sort is enough
+        for (int i = 1; i < found; i++) {
+            int move = moves[i];
+            int c = counts[i];
+            int j = i - 1;
+            while (j >= 0 && counts[j] < c) {
+                moves[j + 1] = moves[j];
+                counts[j + 1] = counts[j];
+                j--;
+            }
+            moves[j + 1] = move;
+            counts[j + 1] = c;
+        }
+        return found;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+    
+    // The mapped posting list for key, positioned at its count, or null
+    private ByteBuffer postings(long key) throws IOException {
+        long low = 0;
+        long high = count;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (keyAt(mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        if (low == count || keyAt(low) != key) return null;
+        long start = offsetAt(low);
+        long end = offsetAt(low + 1);
+        int chunk = Arrays.binarySearch(chunkStarts, start);
+        if (chunk < 0) {
+            chunk = -chunk - 2;
+        }
+        ByteBuffer list = chunks[chunk].duplicate();
+        list.position((int) (start - chunkStarts[chunk]));
+        list.limit((int) (end - chunkStarts[chunk]));
+        return list;
+    }
+    
+    private long keyAt(long index) {
+        return keys.getLong((int) (index * KEY_ENTRY_BYTES));
+    }
+    
+    private long offsetAt(long index) {
+        return keys.getLong((int) (index * KEY_ENTRY_BYTES) + 8);
+    }
+    
+    static void putVarlong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+    
+    static long getVarlong(ByteBuffer buffer) throws IOException {
+        long value = 0L;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = buffer.get() & 0xFF;
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+    
+    // Collects occurrences from games and writes a sorted index
+    public static final class Builder implements Closeable {
+        public static final int DEFAULT_RUN_ENTRIES = 1 << 22;
+        
+        private final Path output;
+        private final long[] keys;
+        private final long[] postings;
+        private int size;
+        private final List<Path> runs = new ArrayList<>();
+        private final ChessBoard replay = new ChessBoard();
+        
+        // Runs of runEntries occurrences (16 bytes each) are spilled next to output
+        public Builder(Path output, int runEntries) {
+            this.output = output.toAbsolutePath();
+            this.keys = new long[runEntries];
+            this.postings = new long[runEntries];
+        }
+        
+        public Builder(Path output) {
+            this(output, DEFAULT_RUN_ENTRIES);
+        }
+        
+        // Indexes every position of board's game, including the last. The
+        // history is consumed: the board is left at its first position.
+        public void add(long gameId, ChessBoard board) throws IOException {
+            if (gameId < 0 || gameId > MAX_GAME_ID) {
+                throw new IllegalArgumentException("Game id out of range: " + gameId);
+            }
+            int plies = board.getPly();
+            if (plies > GameArchive.MAX_PLIES) {
+                throw new IllegalArgumentException("Game " + gameId + " is longer than " + GameArchive.MAX_PLIES + " plies");
+            }
+            put(board.getZobristKey(), pack(gameId, plies, 0));
+            for (int i = plies - 1; i >= 0; i--) {
+                int move = board.moveAt(i);
+                board.unmakeMove();
+                put(board.getZobristKey(), pack(gameId, i, GameCodec.packMove(move)));
+            }
+        }
+        
+        public void add(long gameId, PgnGame game) throws IOException {
+            game.replay(replay);
+            add(gameId, replay);
+        }
+        
+        private static long pack(long gameId, int ply, int packedMove) {
+            return (gameId << (PLY_BITS + MOVE_BITS)) | ((long) ply << MOVE_BITS) | packedMove;
+        }
+        
+        private void put(long key, long posting) throws IOException {
+            if (size == keys.length) {
+                spill();
+            }
+            keys[size] = key;
+            postings[size++] = posting;
+        }
+        
+        // Sorts the buffered occurrences and writes them as one run
+        private void spill() throws IOException {
+            sort(keys, postings, 0, size - 1);
+            Path run = Files.createTempFile(output.getParent(), output.getFileName() + ".", ".run");
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(keys[i]);
+                    out.writeLong(postings[i]);
+                }
+            }
+            size = 0;
+        }
+        
+        // Merges every run into the index file; returns the position count
+        public long write() throws IOException {
+            if (size > 0 || runs.isEmpty()) {
+                spill();
+            }
+            PriorityQueue<Run> queue = new PriorityQueue<>();
+            Path table = Files.createTempFile(output.getParent(), output.getFileName() + ".", ".keys");
+            long positions = 0L;
+            try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Path path : runs) {
+                    Run run = new Run(path);
+                    if (run.next()) {
+                        queue.add(run);
+                    } else {
+                        run.close();
+                    }
+                }
+                
+                // Posting lists go straight to the index, key entries to a
+                // side file that is appended once every offset is known
+                long offset;
+                try (DataOutputStream tableOut = new DataOutputStream(
+                        new BufferedOutputStream(Files.newOutputStream(table), 1 << 16))) {
+                    ByteBuffer out = ByteBuffer.allocate(1 << 16);
+                    channel.position(HEADER_BYTES);
+                    long[] list = new long[256];
+                    while (!queue.isEmpty()) {
+                        // Gather one key's postings; runs are sorted, so they come out in order
+                        long key = queue.peek().key;
+                        int n = 0;
+                        while (!queue.isEmpty() && queue.peek().key == key) {
+                            Run run = queue.poll();
+                            if (n == list.length) {
+                                list = Arrays.copyOf(list, n * 2);
+                            }
+                            list[n++] = run.posting;
+                            if (run.next()) {
+                                queue.add(run);
+                            } else {
+                                run.close();
+                            }
+                        }
+                        tableOut.writeLong(key);
+                        tableOut.writeLong(channel.position() + out.position());
+                        positions++;
+                        encode(channel, out, list, n);
+                    }
+                    drain(channel, out);
+                    offset = channel.position();
+                    tableOut.writeLong(0L);
+                    tableOut.writeLong(offset);
+                }
+                
+                try (FileChannel keysIn = FileChannel.open(table, StandardOpenOption.READ)) {
+                    long copied = 0L;
+                    long length = keysIn.size();
+                    while (copied < length) {
+                        copied += keysIn.transferTo(copied, length - copied, channel);
+                    }
+                }
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.put(MAGIC).put((byte) VERSION).position(8);
+                header.putLong(positions).putLong(offset);
+                header.flip();
+                while (header.hasRemaining()) {
+                    channel.write(header, header.position());
+                }
+            } finally {
+                for (Run run : queue) {
+                    run.close();
+                }
+                Files.deleteIfExists(table);
+                close();
+            }
+            return positions;
+        }
+        
+        // Appends one posting list to out
+        private static void encode(FileChannel channel, ByteBuffer out, long[] list, int n) throws IOException {
+            if (out.remaining() < 5) {
+                drain(channel, out);
+            }
+            GameCodec.putVarint(out, n);
+            long previousGame = 0L;
+            int previousPly = 0;
+            for (int i = 0; i < n; i++) {
+                // At most 10 bytes of game id, 2 of ply and 2 of move
+                if (out.remaining() < 14) {
+                    drain(channel, out);
+                }
+                long gameId = list[i] >>> (PLY_BITS + MOVE_BITS);
+                int ply = (int) (list[i] >>> MOVE_BITS) & ((1 << PLY_BITS) - 1);
+                long delta = gameId - previousGame;
+                putVarlong(out, delta);
+                GameCodec.putVarint(out, delta == 0 && i > 0 ? ply - previousPly : ply);
+                out.putShort((short) list[i]);
+                previousGame = gameId;
+                previousPly = ply;
+            }
+        }
+        
+        private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+            out.flip();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            out.clear();
+        }
+        // Deletes the spilled runs; called by write()
+        @Override
+        public void close() throws IOException {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            runs.clear();
+        }
+        
+        // Quicksort of the two parallel arrays by key, then posting
+        private static void sort(long[] k, long[] p, int low, int high) {
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                long pivotKey = k[mid];
+                long pivotPosting = p[mid];
+                int i = low;
+                int j = high;
+                while (i <= j) {
+                    while (compare(k[i], p[i], pivotKey, pivotPosting) < 0) i++;
+                    while (compare(k[j], p[j], pivotKey, pivotPosting) > 0) j--;
+                    if (i <= j) {
+                        long key = k[i];
+                        k[i] = k[j];
+                        k[j] = key;
+                        long posting = p[i];
+                        p[i++] = p[j];
+                        p[j--] = posting;
+                    }
+                }
+                // Recurse into the smaller half to bound the stack depth
+                if (j - low < high - i) {
+                    sort(k, p, low, j);
+                    low = i;
+                } else {
+                    sort(k, p, i, high);
+                    high = j;
+                }
+            }
+        }
+        
+        private static int compare(long keyA, long postingA, long keyB, long postingB) {
+            int byKey = Long.compare(keyA, keyB);
+            return byKey != 0 ? byKey : Long.compare(postingA, postingB);
+        }
+    }
+    
+    // A sorted run being merged, positioned at its current entry
+    private static final class Run implements Comparable<Run>, Closeable {
+        private final DataInputStream in;
+        long key;
+        long posting;
+        
+        Run(Path path) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16));
+        }
+        
+        boolean next() throws IOException {
+            try {
+                key = in.readLong();
+                posting = in.readLong();
+                return true;
+            } catch (EOFException e) {
+                return false;
+            }
+        }
+        
+        @Override
+        public int compareTo(Run other) {
+            int byKey = Long.compare(key, other.key);
+            return byKey != 0 ? byKey : Long.compare(posting, other.posting);
+        }
+        
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: PositionIndex <index> (--archive file | --pgn file) [--threads N]");
+            System.err.println("       PositionIndex <index> --query (--fen FEN | --moves \"e4 e5 Nf3\") [--limit N]");
+            System.exit(2);
+        }
+        Path indexPath = Paths.get(args[0]);
+        Path pgn = null;
+        Path archivePath = null;
+        boolean query = false;
+        String fen = null;
+        String moves = null;
+        int limit = 10;
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--pgn" -> pgn = Paths.get(args[++i]);
+                case "--archive" -> archivePath = Paths.get(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--query" -> query = true;
+                case "--fen" -> fen = args[++i];
+                case "--moves" -> moves = args[++i];
+                case "--limit" -> limit = Integer.parseInt(args[++i]);
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+        
+        if (query) {
+            ChessBoard board = fen != null ? new ChessBoard(fen) : new ChessBoard();
+            int[] buffer = new int[MoveGenerator.MAX_MOVES];
+            if (moves != null) {
+                for (String san : moves.trim().split("\\s+")) {
+                    if (san.isEmpty()) continue;
+                    int move = San.parse(board, san, buffer);
+                    if (move == 0) {
+                        System.err.println("Illegal move: " + san);
+                        System.exit(2);
+                    }
+                    board.makeMove(move);
+                }
+            }
+            try (PositionIndex index = PositionIndex.open(indexPath)) {
+                long start = System.nanoTime();
+                List<Occurrence> found = index.find(board);
+                int[] next = new int[MoveGenerator.MAX_MOVES];
+                int[] counts = new int[MoveGenerator.MAX_MOVES];
+                int distinct = index.nextMoves(board, next, counts);
+                long elapsed = System.nanoTime() - start;
+                System.out.println("Position: " + board.getFen());
+                System.out.println("Games: " + found.size());
+                for (int i = 0; i < distinct; i++) {
+                    System.out.println("  " + San.toSan(board, next[i], buffer) + " " + counts[i]);
+                }
+                for (int i = 0; i < Math.min(limit, found.size()); i++) {
+                    Occurrence occurrence = found.get(i);
+                    System.out.println("  game " + occurrence.getGameId() + " ply " + occurrence.getPly());
+                }
+                System.out.println("Time: " + elapsed / 1_000 + " us");
+            }
+            return;
+        }
+        
+        long start = System.nanoTime();
+        Builder builder = new Builder(indexPath);
+        long games;
+        if (pgn != null) {
+            long[] nextId = {0L};
+            IOException[] failure = {null};
+            games = PgnReader.read(pgn, threads, game -> {
+                long id = nextId[0]++;
+                if (game.hasError() || failure[0] != null) return;
+                try {
+                    builder.add(id, game);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null) {
+                builder.close();
+                throw failure[0];
+            }
+        } else if (archivePath != null) {
+            try (GameArchive archive = GameArchive.open(archivePath)) {
+                ChessBoard board = new ChessBoard();
+                long count = archive.size();
+                for (long id = 0; id < count; id++) {
+                    archive.replay(id, board);
+                    builder.add(id, board);
+                }
+                games = count;
+            }
+        } else {
+            System.err.println("Give --pgn, --archive or --query");
+            System.exit(2);
+            return;
+        }
+        long positions = builder.write();
+        System.out.println("Games: " + games);
+        System.out.println("Positions: " + positions);
+        System.out.println("Size: " + Files.size(indexPath) / 1024 + " KB");
+        System.out.println("Time: " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+}
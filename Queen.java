@@ -18,6 +18,9 @@ class Queen extends Piece {
         return false;
     }
     
+    @Override
+    public int getType() { return Bitboards.QUEEN; }
+    
     @Override
     public String getName() { return "Queen"; }
     
@@ -13,6 +13,9 @@ class Rook extends Piece {
         return isPathClear(from, to, board);
     }
     
+    @Override
+    public int getType() { return Bitboards.ROOK; }
+    
     @Override
     public String getName() { return "Rook"; }
     
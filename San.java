@@ -0,0 +1,175 @@
+package smartchess;
+
+// San.java - Standard Algebraic Notation for packed moves
+//
+// Moves are written the way PGN expects: piece letter, the least
+// disambiguation that makes the move unique, "x" for captures, "=Q" for
+// promotions and a "+" or "#" suffix. Parsing matches a SAN token against
+// the board's legal moves and also accepts common variants (0-0, e8Q,
+// missing or extra check marks, trailing annotations like "!?").
+final class San {
+    private static final String PIECE_LETTERS = "PNBRQK";
+    
+    private San() {
+    }
+    
+    public static String toSan(ChessBoard board, int move) {
+        return toSan(board, move, new int[MoveGenerator.MAX_MOVES]);
+    }
+    
+    // move must be legal on board; buffer is scratch space for the generator
+    public static String toSan(ChessBoard board, int move, int[] buffer) {
+        StringBuilder san = new StringBuilder(8);
+        int from = Move.fromSquare(move);
+        int to = Move.toSquare(move);
+        int moved = Move.movedPiece(move);
+        int type = Bitboards.typeOf(moved);
+        
+        if (Move.flags(move) == Move.CASTLE) {
+            san.append(to > from ? "O-O" : "O-O-O");
+        } else {
+            if (type == Bitboards.PAWN) {
+                if (Move.isCapture(move)) {
+                    san.append((char) ('a' + (from & 7)));
+                }
+            } else {
+                san.append(PIECE_LETTERS.charAt(type));
+                appendDisambiguation(san, board, move, buffer);
+            }
+            if (Move.isCapture(move)) {
+                san.append('x');
+            }
+            appendSquare(san, to);
+            if (Move.flags(move) == Move.PROMOTION) {
+                san.append('=').append(PIECE_LETTERS.charAt(Move.promotionType(move)));
+            }
+        }
+        
+        board.makeMove(move);
+        GameStatus status = board.evaluateStatus();
+        board.unmakeMove();
+        if (status == GameStatus.CHECKMATE) {
+            san.append('#');
+        } else if (status == GameStatus.CHECK) {
+            san.append('+');
+        }
+        return san.toString();
+    }
+    
+    // File, rank or both of the origin, when another piece of the same kind
+    // can also reach the target square
+    private static void appendDisambiguation(StringBuilder san, ChessBoard board, int move, int[] buffer) {
+        int from = Move.fromSquare(move);
+        int to = Move.toSquare(move);
+        int moved = Move.movedPiece(move);
+        long others = board.pieces(moved) & ~(1L << from);
+        if (others == 0) return;
+        
+        boolean ambiguous = false;
+        boolean sameFile = false;
+        boolean sameRank = false;
+        int count = MoveGenerator.generateLegalMoves(board, Bitboards.colorOf(moved), others, buffer);
+        for (int i = 0; i < count; i++) {
+            if (Move.toSquare(buffer[i]) != to) continue;
+            int other = Move.fromSquare(buffer[i]);
+            ambiguous = true;
+            sameFile |= (other & 7) == (from & 7);
+            sameRank |= (other >>> 3) == (from >>> 3);
+        }
+        if (!ambiguous) return;
+        
+        if (!sameFile) {
+            san.append((char) ('a' + (from & 7)));
+        } else if (!sameRank) {
+            san.append((char) ('1' + 7 - (from >>> 3)));
+        } else {
+            appendSquare(san, from);
+        }
+    }
+    
+    private static void appendSquare(StringBuilder san, int sq) {
+        san.append((char) ('a' + (sq & 7))).append((char) ('1' + 7 - (sq >>> 3)));
+    }
+    
+    public static int parse(ChessBoard board, String text) {
+        return parse(board, text, new int[MoveGenerator.MAX_MOVES]);
+    }
+    
+    // The legal move text denotes on board, or 0 if it is illegal, ambiguous
+    // or not SAN at all
+    public static int parse(ChessBoard board, String text, int[] buffer) {
+        int end = text.length();
+        while (end > 0 && "+#!?".indexOf(text.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        if (end < 2) return 0;
+        
+        int count = board.generateMoves(buffer);
+        if (text.startsWith("O-O") || text.startsWith("0-0")) {
+            boolean kingside = end == 3;
+            if (!kingside && end != 5) return 0;
+            for (int i = 0; i < count; i++) {
+                int move = buffer[i];
+                if (Move.flags(move) == Move.CASTLE && (Move.toSquare(move) > Move.fromSquare(move)) == kingside) {
+                    return move;
+                }
+            }
+            return 0;
+        }
+        
+        // Optional piece letter, then origin hints, then the target square
+        int pos = 0;
+        int type = Bitboards.PAWN;
+        int letter = PIECE_LETTERS.indexOf(text.charAt(0));
+        if (letter >= 0) {
+            type = letter;
+            pos = 1;
+        }
+        int promotion = -1;
+        if (type == Bitboards.PAWN && !Character.isDigit(text.charAt(end - 1))) {
+            // A pawn move can only end in a letter when it promotes: e8=Q, e8Q
+            promotion = PIECE_LETTERS.indexOf(Character.toUpperCase(text.charAt(end - 1)));
+            if (promotion < Bitboards.KNIGHT || promotion > Bitboards.QUEEN) return 0;
+            end--;
+            if (text.charAt(end - 1) == '=') end--;
+        }
+        if (end - pos < 2) return 0;
+        int toFile = text.charAt(end - 2) - 'a';
+        int toRank = text.charAt(end - 1) - '1';
+        if (toFile < 0 || toFile > 7 || toRank < 0 || toRank > 7) return 0;
+        int to = Bitboards.square(7 - toRank, toFile);
+        
+        int fromFile = -1;
+        int fromRank = -1;
+        for (int i = pos; i < end - 2; i++) {
+            char c = text.charAt(i);
+            if (c >= 'a' && c <= 'h') {
+                fromFile = c - 'a';
+            } else if (c >= '1' && c <= '8') {
+                fromRank = c - '1';
+            } else if (c != 'x' && c != ':' && c != '-') {
+                return 0;
+            }
+        }
+        
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            int move = buffer[i];
+            int from = Move.fromSquare(move);
+            if (Move.toSquare(move) != to
+                    || Bitboards.typeOf(Move.movedPiece(move)) != type
+                    || (fromFile >= 0 && (from & 7) != fromFile)
+                    || (fromRank >= 0 && 7 - (from >>> 3) != fromRank)
+                    || Move.flags(move) == Move.CASTLE) {
+                continue;
+            }
+            boolean isPromotion = Move.flags(move) == Move.PROMOTION;
+            if (isPromotion != (promotion >= 0) || (isPromotion && Move.promotionType(move) != promotion)) {
+                continue;
+            }
+            if (found != 0) return 0;
+            found = move;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,371 @@
+package smartchess;
+
+// Search.java - Iterative deepening alpha-beta search on a ChessBoard copy
+//
+// Negamax with a triangular principal-variation table, quiescence search
+// on captures and promotions, and MVV-LVA/killer move ordering. Depth,
+// node and time limits are checked while searching; an interrupted
+// iteration is discarded and the last completed one is returned. Results
+// are kept in a TranspositionTable that may be shared with other searches.
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+public class Search {
+    public static final int INFINITY = 32000;
+    public static final int MATE = 30000;
+    static final int MAX_PLY = 96;
+    
+    public static final int DEFAULT_TABLE_MB = 16;
+    
+    private static final int HASH_MOVE_BONUS = 1 << 25;
+    private static final int PV_BONUS = 1 << 24;
+    private static final int CAPTURE_BONUS = 1 << 20;
+    private static final int KILLER_BONUS = 1 << 16;
+    
+    private final int[][] moveBuffers = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+    private final int[][] orderScores = new int[MAX_PLY + 1][MoveGenerator.MAX_MOVES];
+    private final int[][] pvTable = new int[MAX_PLY + 1][MAX_PLY + 1];
+    private final int[] pvLength = new int[MAX_PLY + 1];
+    private final int[][] killers = new int[MAX_PLY + 1][2];
+    private int[] previousPv = new int[0];
+    private final TranspositionTable table;
+    private OpeningBook book;
+    private Tablebase tablebase;
+    private final int[] tablebaseSquares = new int[Tablebase.MAX_PIECES];
+    private Consumer<SearchResult> progressListener;
+    
+    private ChessBoard board;
+    private long nodes;
+    private long nodeLimit;
+    private long deadline;
+    private boolean aborted;
+    private volatile boolean stopRequested;
+    
+    public Search() {
+        this(new TranspositionTable(DEFAULT_TABLE_MB));
+    }
+    
+    public Search(TranspositionTable table) {
+        this.table = table;
+    }
+    
+    public TranspositionTable getTable() {
+        return table;
+    }
+    
+    // Positions found in book are answered with the book move, without searching
+    public void setOpeningBook(OpeningBook book) {
+        this.book = book;
+    }
+    
+    // Positions covered by the tables are scored exactly instead of searched
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+    
+    // Called on the searching thread after every completed iteration
+    public void setProgressListener(Consumer<SearchResult> listener) {
+        this.progressListener = listener;
+    }
+    
+    // Searches a private copy, so the caller's board is never touched
+    public SearchResult search(ChessBoard position, SearchLimits limits) {
+        if (book != null) {
+            SearchResult bookResult = book.toResult(position);
+            if (bookResult != null) {
+                stopRequested = false;
+                return bookResult;
+            }
+        }
+        table.newSearch();
+        return run(position, limits, 1);
+    }
+    
+    // Iterative deepening from startDepth, without aging the table; parallel
+    // helpers start at different depths so they fill it with different work
+    SearchResult run(ChessBoard position, SearchLimits limits, int startDepth) {
+        board = new ChessBoard(position);
+        nodes = 0L;
+        nodeLimit = limits.getMaxNodes();
+        aborted = false;
+        previousPv = new int[0];
+        for (int[] slot : killers) {
+            slot[0] = 0;
+            slot[1] = 0;
+        }
+        
+        long start = System.nanoTime();
+        long budget = limits.getMaxTimeMillis();
+        deadline = budget == Long.MAX_VALUE ? Long.MAX_VALUE : start + budget * 1_000_000L;
+        
+        SearchResult best = null;
+        for (int depth = Math.min(startDepth, limits.getMaxDepth()); depth <= limits.getMaxDepth(); depth++) {
+            int score = negamax(depth, -INFINITY, INFINITY, 0);
+            if (aborted) break;
+            
+            previousPv = extendFromTable(Arrays.copyOf(pvTable[0], pvLength[0]), depth);
+            long elapsed = (System.nanoTime() - start) / 1_000_000L;
+            best = new SearchResult(previousPv.length > 0 ? previousPv[0] : 0, score, depth, nodes, elapsed, previousPv);
+            if (progressListener != null) {
+                progressListener.accept(best);
+            }
+            
+            // No legal moves, or a forced mate already found: deeper search cannot change it
+            if (previousPv.length == 0 || best.isMateScore()) break;
+        }
+        
+        if (best == null) {
+            best = fallbackResult(start);
+        }
+        // Cleared only once the search is over, so a stop that arrived
+        // before it started still ends it at the first node
+        stopRequested = false;
+        return best;
+    }
+    
+    // Asks a running search to return as soon as possible. A stop that comes
+    // before the search starts is kept and ends it at once.
+    public void stop() {
+        stopRequested = true;
+    }
+    
+    // Drops a stop that came after the last search had already ended, for
+    // an owner like ParallelSearch that reuses the search and tracks stops itself
+    void clearStop() {
+        stopRequested = false;
+    }
+    
+    public long getNodes() {
+        return nodes;
+    }
+    
+    // Table cutoffs cut the collected line short; follow stored best moves
+    // from its end while they are still legal
+    private int[] extendFromTable(int[] pv, int depth) {
+        if (pv.length >= depth || pv.length == 0) return pv;
+        
+        int[] line = Arrays.copyOf(pv, depth);
+        int length = 0;
+        for (; length < pv.length; length++) {
+            board.makeMove(pv[length]);
+        }
+        while (length < depth) {
+            long entry = table.probe(board.getZobristKey());
+            int move = entry == 0 ? 0 : findLegal(TranspositionTable.move(entry), moveBuffers[length]);
+            if (move == 0 || board.isRepetition()) break;
+            board.makeMove(move);
+            line[length++] = move;
+        }
+        for (int i = 0; i < length; i++) {
+            board.unmakeMove();
+        }
+        return Arrays.copyOf(line, length);
+    }
+    
+    private int findLegal(int storedMove, int[] moves) {
+        int count = board.generateMoves(moves);
+        for (int i = 0; i < count; i++) {
+            if ((moves[i] & TranspositionTable.MOVE_MASK) == storedMove) return moves[i];
+        }
+        return 0;
+    }
+    
+    // Used when not even depth 1 completed: play any legal move
+    private SearchResult fallbackResult(long start) {
+        int[] moves = moveBuffers[0];
+        int count = board.generateMoves(moves);
+        long elapsed = (System.nanoTime() - start) / 1_000_000L;
+        int move = count > 0 ? moves[0] : 0;
+        return new SearchResult(move, 0, 0, nodes, elapsed, count > 0 ? new int[] {move} : new int[0]);
+    }
+    
+    private int negamax(int depth, int alpha, int beta, int ply) {
+        pvLength[ply] = ply;
+        
+        if (ply > 0 && (board.getHalfmoveClock() >= 100 || board.isRepetition())) {
+            return 0;
+        }
+        if (ply >= MAX_PLY) {
+            return Evaluation.evaluate(board);
+        }
+        if (ply > 0 && tablebase != null) {
+            int value = tablebase.probe(board, tablebaseSquares);
+            if (value != Tablebase.NOT_FOUND) return tablebaseScore(value, ply);
+        }
+        
+        boolean inCheck = board.isInCheck(board.isWhiteTurn());
+        if (inCheck) {
+            depth++; // Check extension
+        }
+        if (depth <= 0) {
+            return quiescence(alpha, beta, ply);
+        }
+        
+        if (countNode()) return 0;
+        
+        long key = board.getZobristKey();
+        long entry = table.probe(key);
+        int hashMove = 0;
+        if (entry != 0) {
+            hashMove = TranspositionTable.move(entry);
+            if (ply > 0 && TranspositionTable.depth(entry) >= depth) {
+                int stored = fromTableScore(TranspositionTable.score(entry), ply);
+                int bound = TranspositionTable.bound(entry);
+                if (bound == TranspositionTable.EXACT) return stored;
+                if (bound == TranspositionTable.LOWER_BOUND && stored >= beta) return beta;
+                if (bound == TranspositionTable.UPPER_BOUND && stored <= alpha) return alpha;
+            }
+        }
+        
+        int[] moves = moveBuffers[ply];
+        int count = board.generateMoves(moves);
+        if (count == 0) {
+            return inCheck ? -MATE + ply : 0;
+        }
+        scoreMoves(moves, count, ply, hashMove);
+        
+        int originalAlpha = alpha;
+        int bestMove = 0;
+        for (int i = 0; i < count; i++) {
+            int move = pickNext(moves, count, i, ply);
+            board.makeMove(move);
+            int score = -negamax(depth - 1, -beta, -alpha, ply + 1);
+            board.unmakeMove();
+            if (aborted) return 0;
+            
+            if (score > alpha) {
+                alpha = score;
+                bestMove = move;
+                updatePv(ply, move);
+                if (alpha >= beta) {
+                    if (!Move.isCapture(move)) {
+                        storeKiller(ply, move);
+                    }
+                    table.store(key, move, toTableScore(beta, ply), depth, TranspositionTable.LOWER_BOUND);
+                    return beta;
+                }
+            }
+        }
+        int bound = alpha > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER_BOUND;
+        table.store(key, bestMove, toTableScore(alpha, ply), depth, bound);
+        return alpha;
+    }
+    
+    // Mates the tables find beyond MAX_PLY land just below the mate band
+    private static int tablebaseScore(int value, int ply) {
+        if (value == Tablebase.DRAW) return 0;
+        int score = MATE - ply - Tablebase.pliesToMate(value);
+        return Tablebase.isWin(value) ? score : -score;
+    }
+    
+    // Mate scores are stored relative to the node, not the root
+    private static int toTableScore(int score, int ply) {
+        if (score >= MATE - MAX_PLY) return score + ply;
+        if (score <= -MATE + MAX_PLY) return score - ply;
+        return score;
+    }
+    
+    private static int fromTableScore(int score, int ply) {
+        if (score >= MATE - MAX_PLY) return score - ply;
+        if (score <= -MATE + MAX_PLY) return score + ply;
+        return score;
+    }
+    
+    private int quiescence(int alpha, int beta, int ply) {
+        pvLength[ply] = ply;
+        if (countNode()) return 0;
+        
+        int standPat = Evaluation.evaluate(board);
+        if (ply >= MAX_PLY || standPat >= beta) {
+            return standPat >= beta ? beta : standPat;
+        }
+        if (standPat > alpha) {
+            alpha = standPat;
+        }
+        
+        int[] moves = moveBuffers[ply];
+        int count = MoveGenerator.generateLegalCaptures(board, moves);
+        scoreMoves(moves, count, ply, 0);
+        
+        for (int i = 0; i < count; i++) {
+            int move = pickNext(moves, count, i, ply);
+            board.makeMove(move);
+            int score = -quiescence(-beta, -alpha, ply + 1);
+            board.unmakeMove();
+            if (aborted) return 0;
+            
+            if (score > alpha) {
+                alpha = score;
+                updatePv(ply, move);
+                if (alpha >= beta) {
+                    return beta;
+                }
+            }
+        }
+        return alpha;
+    }
+    
+    // Counts a node and reports whether the search must stop
+    private boolean countNode() {
+        nodes++;
+        if (nodes >= nodeLimit || stopRequested) {
+            aborted = true;
+        } else if ((nodes & 1023) == 0 && System.nanoTime() > deadline) {
+            aborted = true;
+        }
+        return aborted;
+    }
+    
+    private void updatePv(int ply, int move) {
+        pvTable[ply][ply] = move;
+        System.arraycopy(pvTable[ply + 1], ply + 1, pvTable[ply], ply + 1, pvLength[ply + 1] - ply - 1);
+        pvLength[ply] = Math.max(pvLength[ply + 1], ply + 1);
+    }
+    
+    private void storeKiller(int ply, int move) {
+        if (killers[ply][0] != move) {
+            killers[ply][1] = killers[ply][0];
+            killers[ply][0] = move;
+        }
+    }
+    
+    private void scoreMoves(int[] moves, int count, int ply, int hashMove) {
+        int[] scores = orderScores[ply];
+        int pvMove = ply < previousPv.length ? previousPv[ply] : 0;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            int score = 0;
+            if (hashMove != 0 && (move & TranspositionTable.MOVE_MASK) == hashMove) {
+                score = HASH_MOVE_BONUS;
+            } else if (move == pvMove) {
+                score = PV_BONUS;
+            } else if (Move.isCapture(move) || Move.flags(move) == Move.PROMOTION) {
+                // Most valuable victim first, least valuable attacker breaks ties
+                int victim = Move.capturedPiece(move);
+                int victimValue = victim == Bitboards.EMPTY ? 0 : Evaluation.PIECE_VALUES[Bitboards.typeOf(victim)];
+                if (Move.flags(move) == Move.PROMOTION) victimValue += Evaluation.PIECE_VALUES[Move.promotionType(move)];
+                int attacker = Bitboards.typeOf(Move.movedPiece(move));
+                score = CAPTURE_BONUS + victimValue * 8 - attacker;
+            } else if (move == killers[ply][0] || move == killers[ply][1]) {
+                score = KILLER_BONUS;
+            }
+            scores[i] = score;
+        }
+    }
+    
+    // Selection sort step: swap the best remaining move into slot i
+    private int pickNext(int[] moves, int count, int i, int ply) {
+        int[] scores = orderScores[ply];
+        int best = i;
+        for (int j = i + 1; j < count; j++) {
+            if (scores[j] > scores[best]) best = j;
+        }
+        int move = moves[best];
+        moves[best] = moves[i];
+        moves[i] = move;
+        int score = scores[best];
+        scores[best] = scores[i];
+        scores[i] = score;
+        return move;
+    }
+}
@@ -0,0 +1,40 @@
+package smartchess;
+
+// SearchLimits.java - Depth, node and time budget for one search
+public class SearchLimits {
+    public static final int MAX_DEPTH = 64;
+    
+    private final int maxDepth;
+    private final long maxNodes;
+    private final long maxTimeMillis;
+    
+    public SearchLimits(int maxDepth, long maxNodes, long maxTimeMillis) {
+        this.maxDepth = Math.min(Math.max(maxDepth, 1), MAX_DEPTH);
+        this.maxNodes = maxNodes;
+        this.maxTimeMillis = maxTimeMillis;
+    }
+    
+    public static SearchLimits depth(int depth) {
+        return new SearchLimits(depth, Long.MAX_VALUE, Long.MAX_VALUE);
+    }
+    
+    public static SearchLimits nodes(long nodes) {
+        return new SearchLimits(MAX_DEPTH, nodes, Long.MAX_VALUE);
+    }
+    
+    public static SearchLimits time(long millis) {
+        return new SearchLimits(MAX_DEPTH, Long.MAX_VALUE, millis);
+    }
+    
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+    
+    public long getMaxNodes() {
+        return maxNodes;
+    }
+    
+    public long getMaxTimeMillis() {
+        return maxTimeMillis;
+    }
+}
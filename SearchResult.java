@@ -0,0 +1,95 @@
+package smartchess;
+
+// SearchResult.java - Best move, score and principal variation of a search
+public class SearchResult {
+    private final int bestMove;
+    private final int score;
+    private final int depth;
+    private final long nodes;
+    private final long timeMillis;
+    private final int[] principalVariation;
+    private final boolean fromBook;
+    
+    public SearchResult(int bestMove, int score, int depth, long nodes, long timeMillis, int[] principalVariation) {
+        this(bestMove, score, depth, nodes, timeMillis, principalVariation, false);
+    }
+    
+    public SearchResult(int bestMove, int score, int depth, long nodes, long timeMillis, int[] principalVariation,
+                        boolean fromBook) {
+        this.bestMove = bestMove;
+        this.score = score;
+        this.depth = depth;
+        this.nodes = nodes;
+        this.timeMillis = timeMillis;
+        this.principalVariation = principalVariation;
+        this.fromBook = fromBook;
+    }
+    
+    // Packed move, or 0 when the side to move has no legal moves
+    public int getBestMove() {
+        return bestMove;
+    }
+    
+    public boolean hasMove() {
+        return bestMove != 0;
+    }
+    
+    // Centipawns from the side to move's point of view
+    public int getScore() {
+        return score;
+    }
+    
+    public boolean isMateScore() {
+        return Math.abs(score) >= Search.MATE - Search.MAX_PLY;
+    }
+    
+    public int getDepth() {
+        return depth;
+    }
+    
+    public long getNodes() {
+        return nodes;
+    }
+    
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+    
+    public long getNodesPerSecond() {
+        return timeMillis > 0 ? nodes * 1000 / timeMillis : nodes;
+    }
+    
+    // True when the move came from the opening book without searching
+    public boolean isBookMove() {
+        return fromBook;
+    }
+    
+    public int[] getPrincipalVariation() {
+        return principalVariation.clone();
+    }
+    
+    public Position getFrom() {
+        return Position.of(Move.fromSquare(bestMove));
+    }
+    
+    public Position getTo() {
+        return Position.of(Move.toSquare(bestMove));
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder pv = new StringBuilder();
+        for (int move : principalVariation) {
+            if (pv.length() > 0) pv.append(' ');
+            pv.append(Move.toCoordinate(move));
+        }
+        if (fromBook) {
+            return "book " + Move.toCoordinate(bestMove);
+        }
+        String scoreText = isMateScore()
+                ? "mate " + (score > 0 ? (Search.MATE - score + 1) / 2 : -(Search.MATE + score) / 2)
+                : "cp " + score;
+        return "depth " + depth + " score " + scoreText + " nodes " + nodes
+             + " time " + timeMillis + " pv " + pv;
+    }
+}
@@ -0,0 +1,433 @@
+package smartchess;
+
+// Tablebase.java - Probing of endgame tables built by TablebaseGenerator
+//
+// Each material set ("KQK", "KRPKR", ...) has one file holding a value for
+// every placement of its pieces with either side to move:
+//   16-byte header ('S' 'C' 'T' 'B', version, bits per entry, piece count,
+//   reserved, piece codes of the slots padded with 0xFF)
+//   entries bit-packed little-endian, white to move first, then 8 bytes
+//   of padding so any entry can be read with a single 8-byte load
+// An entry is 0 for a draw, otherwise the distance to mate in plies plus
+// one: odd distances are wins for the side to move, even ones are losses.
+// Positions are indexed by square per slot, with the first white king
+// mirrored onto files a-d, so a probe is a material lookup plus one read.
+// Tables ignore the fifty-move rule and only apply without castling rights.
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public final class Tablebase {
+    public static final int NOT_FOUND = -1;
+    public static final int DRAW = 0;
+    public static final int MAX_PIECES = 5;
+    
+    static final String EXTENSION = ".sctb";
+    static final int VERSION = 1;
+    
+    private static final byte[] MAGIC = {'S', 'C', 'T', 'B'};
+    private static final int HEADER_BYTES = 16;
+    private static final long KINGS_ONLY = Material.keyOf(new int[] {
+        Bitboards.code(Bitboards.WHITE, Bitboards.KING), Bitboards.code(Bitboards.BLACK, Bitboards.KING)});
+    
+    // Open addressing on material key; each table sits under its own key
+    // and under the key with colors swapped
+    private Table[] slots = new Table[64];
+    private long[] slotKeys = new long[64];
+    private int tableCount;
+    private int maxPieces;
+    
+    public Tablebase() {
+    }
+    
+    // Opens every table file in the directory
+    public static Tablebase open(Path directory) throws IOException {
+        Tablebase tablebase = new Tablebase();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + EXTENSION)) {
+            for (Path file : files) {
+                tablebase.load(file);
+            }
+        }
+        return tablebase;
+    }
+    
+    public void load(Path file) throws IOException {
+        Table table = Table.open(file);
+        put(table.material.whiteKey, table);
+        put(table.material.flippedKey, table);
+        tableCount++;
+        maxPieces = Math.max(maxPieces, table.material.pieceCount());
+    }
+    
+    public int size() {
+        return tableCount;
+    }
+    
+    public boolean contains(String material) {
+        Material parsed = new Material(material);
+        return parsed.whiteKey == KINGS_ONLY || get(parsed.whiteKey) != null;
+    }
+    
+    // NOT_FOUND, DRAW, or the distance to mate plus one for board's position
+    public int probe(ChessBoard board) {
+        return probe(board, new int[MAX_PIECES]);
+    }
+    
+    // Same, with squares (MAX_PIECES long) as scratch, so a search probing
+    // at every node allocates nothing
+    public int probe(ChessBoard board, int[] squares) {
+        if (Long.bitCount(board.allOccupied()) > Math.max(maxPieces, 2) || board.castlingRights() != 0) {
+            return NOT_FOUND;
+        }
+        long key = 0L;
+        for (int code = 0; code < 12; code++) {
+            key += (long) Long.bitCount(board.pieces(code)) << (code * 4);
+        }
+        if (key == KINGS_ONLY) return DRAW;
+        Table table = get(key);
+        return table == null ? NOT_FOUND : table.probe(board, key != table.material.whiteKey, squares);
+    }
+    
+    public static boolean isWin(int value) {
+        return value > 0 && (value & 1) == 0;
+    }
+    
+    public static boolean isLoss(int value) {
+        return value > 0 && (value & 1) == 1;
+    }
+    
+    // Plies until mate with best play from both sides, for a win or a loss
+    public static int pliesToMate(int value) {
+        return value - 1;
+    }
+    
+    // Move that keeps the best result and reaches it soonest (or delays a
+    // loss longest), or 0 when the position or a reply is not in the tables
+    public int bestMove(ChessBoard board) {
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        int[] squares = new int[MAX_PIECES];
+        int count = board.generateMoves(moves);
+        int best = 0;
+        int bestRank = Integer.MIN_VALUE;
+        for (int i = 0; i < count; i++) {
+            board.makeMove(moves[i]);
+            int reply = probe(board, squares);
+            board.unmakeMove();
+            if (reply == NOT_FOUND) return 0;
+            
+            // Rank from the mover's side: quick wins, then draws, then slow losses
+            int rank;
+            if (isLoss(reply)) {
+                rank = 1000 - reply;
+            } else if (reply == DRAW) {
+                rank = 0;
+            } else {
+                rank = -1000 + reply;
+            }
+            if (rank > bestRank) {
+                best = moves[i];
+                bestRank = rank;
+            }
+        }
+        return best;
+    }
+    
+    // PGN result the tables prove for the position, or null if not covered
+    public String adjudicate(ChessBoard board) {
+        int value = probe(board);
+        if (value == NOT_FOUND) return null;
+        if (value == DRAW) return "1/2-1/2";
+        return isWin(value) == board.isWhiteTurn() ? "1-0" : "0-1";
+    }
+    
+    private Table get(long key) {
+        int mask = slots.length - 1;
+        for (int slot = slot(key, mask); slots[slot] != null; slot = (slot + 1) & mask) {
+            if (slotKeys[slot] == key) return slots[slot];
+        }
+        return null;
+    }
+    
+    private void put(long key, Table table) {
+        if ((tableCount * 2 + 2) * 2 >= slots.length) {
+            Table[] oldSlots = slots;
+            long[] oldKeys = slotKeys;
+            slots = new Table[oldSlots.length * 2];
+            slotKeys = new long[oldSlots.length * 2];
+            for (int i = 0; i < oldSlots.length; i++) {
+                if (oldSlots[i] != null) insert(oldKeys[i], oldSlots[i]);
+            }
+        }
+        insert(key, table);
+    }
+    
+    private void insert(long key, Table table) {
+        int mask = slots.length - 1;
+        int slot = slot(key, mask);
+        while (slots[slot] != null && slotKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = table;
+        slotKeys[slot] = key;
+    }
+    
+    private static int slot(long key, int mask) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+    }
+    
+    // Pieces of a material set in slot order: white king, other white pieces
+    // by type (Q, R, B, N, P), black king, other black pieces. Converts
+    // between square placements and table indexes.
+    static final class Material {
+        private static final String LETTERS = "PNBRQK";
+        private static final String ORDER = "KQRBNP";
+        private static final int[] STRENGTH = {1, 3, 3, 5, 9, 0};
+        
+        final int[] codes;
+        final long whiteKey;
+        final long flippedKey;
+        private final boolean[] sameAsPrevious;
+        
+        Material(String name) {
+            this(codesOf(name));
+        }
+        
+        Material(int[] codes) {
+            this.codes = codes;
+            this.sameAsPrevious = new boolean[codes.length];
+            int[] flipped = new int[codes.length];
+            for (int i = 0; i < codes.length; i++) {
+                sameAsPrevious[i] = i > 0 && codes[i] == codes[i - 1];
+                flipped[i] = Bitboards.code(1 - Bitboards.colorOf(codes[i]), Bitboards.typeOf(codes[i]));
+            }
+            this.whiteKey = keyOf(codes);
+            this.flippedKey = keyOf(flipped);
+        }
+        
+        static long keyOf(int[] codes) {
+            long key = 0L;
+            for (int code : codes) {
+                key += 1L << (code * 4);
+            }
+            return key;
+        }
+        
+        int pieceCount() {
+            return codes.length;
+        }
+        
+        // Entries per side to move: 32 squares for the first king, 64 for the rest
+        int size() {
+            return 32 << (6 * (codes.length - 1));
+        }
+        
+        boolean hasPawns(int color) {
+            for (int code : codes) {
+                if (code == Bitboards.code(color, Bitboards.PAWN)) return true;
+            }
+            return false;
+        }
+        
+        String name() {
+            StringBuilder name = new StringBuilder(codes.length);
+            for (int code : codes) {
+                name.append(LETTERS.charAt(Bitboards.typeOf(code)));
+            }
+            return name.toString();
+        }
+        
+        // Mirrors and orders the first pieceCount() squares in place and
+        // returns their index
+        int index(int[] squares) {
+            if ((squares[0] & 7) >= 4) {
+                for (int i = 0; i < codes.length; i++) {
+                    squares[i] ^= 7;
+                }
+            }
+            // Identical pieces are interchangeable, so keep them in square order
+            for (int i = 1; i < codes.length; i++) {
+                for (int j = i; j > 0 && sameAsPrevious[j] && squares[j - 1] > squares[j]; j--) {
+                    int sq = squares[j];
+                    squares[j] = squares[j - 1];
+                    squares[j - 1] = sq;
+                }
+            }
+            int index = (squares[0] >>> 3) * 4 + (squares[0] & 7);
+            for (int i = 1; i < codes.length; i++) {
+                index = index * 64 + squares[i];
+            }
+            return index;
+        }
+        
+        void decode(int index, int[] squares) {
+            for (int i = squares.length - 1; i > 0; i--) {
+                squares[i] = index & 63;
+                index >>>= 6;
+            }
+            squares[0] = (index >>> 2) * 8 + (index & 3);
+        }
+        
+        // True when no squares are shared, identical pieces are in order and
+        // no pawn stands on the first or last rank
+        boolean isPlacement(int[] squares) {
+            long occupied = 0L;
+            for (int i = 0; i < squares.length; i++) {
+                long bit = 1L << squares[i];
+                if ((occupied & bit) != 0) return false;
+                occupied |= bit;
+                if (sameAsPrevious[i] && squares[i - 1] > squares[i]) return false;
+                int row = squares[i] >>> 3;
+                if (Bitboards.typeOf(codes[i]) == Bitboards.PAWN && (row == 0 || row == 7)) return false;
+            }
+            return true;
+        }
+        
+        // Name with the stronger side first, e.g. "KRKQ" becomes "KQKR"
+        static String canonical(String name) {
+            name = name.toUpperCase();
+            int split = name.indexOf('K', 1);
+            if (!name.startsWith("K") || split < 0) {
+                throw new IllegalArgumentException("Material needs two kings, like KQK: " + name);
+            }
+            String white = sortSide(name.substring(0, split));
+            String black = sortSide(name.substring(split));
+            return compareSides(white, black) >= 0 ? white + black : black + white;
+        }
+        
+        private static String sortSide(String side) {
+            if (side.indexOf('K', 1) >= 0) {
+                throw new IllegalArgumentException("More than two kings in material " + side);
+            }
+            char[] letters = side.toCharArray();
+            for (char c : letters) {
+                if (ORDER.indexOf(c) < 0) throw new IllegalArgumentException("Unknown piece letter " + c);
+            }
+            for (int i = 2; i < letters.length; i++) {
+                for (int j = i; j > 1 && ORDER.indexOf(letters[j - 1]) > ORDER.indexOf(letters[j]); j--) {
+                    char c = letters[j];
+                    letters[j] = letters[j - 1];
+                    letters[j - 1] = c;
+                }
+            }
+            return new String(letters);
+        }
+        
+        private static int compareSides(String a, String b) {
+            int byStrength = Integer.compare(strength(a), strength(b));
+            if (byStrength != 0) return byStrength;
+            for (int i = 1; i < Math.min(a.length(), b.length()); i++) {
+                int byPiece = Integer.compare(ORDER.indexOf(b.charAt(i)), ORDER.indexOf(a.charAt(i)));
+                if (byPiece != 0) return byPiece;
+            }
+            return Integer.compare(a.length(), b.length());
+        }
+        
+        private static int strength(String side) {
+            int total = 0;
+            for (int i = 1; i < side.length(); i++) {
+                total += STRENGTH[LETTERS.indexOf(side.charAt(i))];
+            }
+            return total;
+        }
+        
+        private static int[] codesOf(String name) {
+            String canonical = canonical(name);
+            int split = canonical.indexOf('K', 1);
+            int[] codes = new int[canonical.length()];
+            for (int i = 0; i < codes.length; i++) {
+                int color = i < split ? Bitboards.WHITE : Bitboards.BLACK;
+                codes[i] = Bitboards.code(color, LETTERS.indexOf(canonical.charAt(i)));
+            }
+            return codes;
+        }
+    }
+    
+    // One mapped table file
+    static final class Table {
+        final Material material;
+        private final MappedByteBuffer data;
+        private final int bits;
+        private final int mask;
+        private final long size;
+        
+        private Table(Material material, MappedByteBuffer data, int bits) {
+            this.material = material;
+            this.data = data;
+            this.bits = bits;
+            this.mask = (1 << bits) - 1;
+            this.size = material.size();
+        }
+        
+        static Table open(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long fileSize = channel.size();
+                if (fileSize < HEADER_BYTES || fileSize > Integer.MAX_VALUE) {
+                    throw new IOException("Bad tablebase size: " + fileSize + " bytes in " + file);
+                }
+                MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0L, fileSize);
+                map.order(ByteOrder.LITTLE_ENDIAN);
+                for (int i = 0; i < MAGIC.length; i++) {
+                    if (map.get(i) != MAGIC[i]) throw new IOException("Not a SmartChess tablebase: " + file);
+                }
+                if (map.get(4) != VERSION) {
+                    throw new IOException("Unsupported tablebase version " + map.get(4) + " in " + file);
+                }
+                int bits = map.get(5);
+                int pieces = map.get(6);
+                if (bits < 1 || bits > 8 || pieces < 3 || pieces > MAX_PIECES) {
+                    throw new IOException("Bad tablebase header in " + file);
+                }
+                int[] codes = new int[pieces];
+                for (int i = 0; i < pieces; i++) {
+                    codes[i] = map.get(8 + i);
+                }
+                Material material = new Material(codes);
+                if (fileSize != dataBytes(material, bits) + HEADER_BYTES) {
+                    throw new IOException("Tablebase size does not match its material in " + file);
+                }
+                return new Table(material, map, bits);
+            }
+        }
+        
+        // Bytes after the header for the entries plus the read padding
+        static long dataBytes(Material material, int bits) {
+            return (2L * material.size() * bits + 7) / 8 + 8;
+        }
+        
+        static void writeHeader(ByteBuffer out, Material material, int bits) {
+            out.put(MAGIC).put((byte) VERSION).put((byte) bits).put((byte) material.pieceCount()).put((byte) 0);
+            for (int i = 0; i < 8; i++) {
+                out.put(i < material.pieceCount() ? (byte) material.codes[i] : (byte) 0xFF);
+            }
+        }
+        
+        int probe(ChessBoard board, boolean flipped, int[] squares) {
+            int[] codes = material.codes;
+            long remaining = 0L;
+            for (int i = 0; i < codes.length; i++) {
+                if (i == 0 || codes[i] != codes[i - 1]) {
+                    int code = codes[i];
+                    if (flipped) code = Bitboards.code(1 - Bitboards.colorOf(code), Bitboards.typeOf(code));
+                    remaining = board.pieces(code);
+                }
+                int sq = Long.numberOfTrailingZeros(remaining);
+                remaining &= remaining - 1;
+                squares[i] = flipped ? sq ^ 56 : sq;
+            }
+            int side = board.sideToMove() ^ (flipped ? 1 : 0);
+            return value(side, material.index(squares));
+        }
+        
+        int value(int side, int index) {
+            long bit = (side * size + index) * bits;
+            long word = data.getLong(HEADER_BYTES + (int) (bit >>> 3));
+            return (int) (word >>> (bit & 7)) & mask;
+        }
+    }
+}
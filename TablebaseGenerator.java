@@ -0,0 +1,432 @@
+package smartchess;
+
+// TablebaseGenerator.java - Retrograde generation of endgame tables
+//
+// Every placement of a material set is first classified with the legal
+// move generator: illegal placements are marked, mates and stalemates are
+// scored, and moves that capture or promote are scored from the smaller
+// tables they lead to (generated first). The remaining moves stay inside
+// the table and are only counted. Results then spread backwards one ply
+// at a time: predecessors are found by moving pieces back along their
+// attack sets, a loss makes every predecessor a win, and a win counts
+// down the predecessor's moves until all of them are known to lose.
+// Scanning for the current ply and collecting predecessors runs in
+// parallel; applying them is sequential, which keeps the tables exact.
+//
+// Usage: TablebaseGenerator <directory> <material>... [--threads N]
+// e.g. TablebaseGenerator tables KQK KRK KPK KRPKR
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public final class TablebaseGenerator {
+    private static final int CHUNK = 1 << 14;
+    private static final int MAX_DISTANCE = 254;
+    
+    // Per-position state while generating
+    private static final int INVALID = 0xFF;  // remaining: not a legal placement
+    private static final int NO_LOSS = 0xFF;  // conversion: a capture or promotion draws or wins
+    
+    private final Path directory;
+    private final int threads;
+    private final Tablebase tablebase;
+    
+    public TablebaseGenerator(Path directory, int threads) throws IOException {
+        this.directory = directory;
+        this.threads = Math.max(1, threads);
+        Files.createDirectories(directory);
+        this.tablebase = Tablebase.open(directory);
+    }
+    
+    public Tablebase getTablebase() {
+        return tablebase;
+    }
+    
+    // Generates the table for material and every table it converts into,
+    // skipping those already in the directory
+    public void generate(String material) throws IOException {
+        String name = Tablebase.Material.canonical(material);
+        if (tablebase.contains(name)) return;
+        Tablebase.Material parsed = new Tablebase.Material(name);
+        if (parsed.pieceCount() > Tablebase.MAX_PIECES) {
+            throw new IllegalArgumentException("At most " + Tablebase.MAX_PIECES + " pieces: " + name);
+        }
+        if (parsed.hasPawns(Bitboards.WHITE) && parsed.hasPawns(Bitboards.BLACK)) {
+            // En passant rights are not part of the index
+            throw new IllegalArgumentException("Pawns on both sides are not supported: " + name);
+        }
+        for (String child : conversions(name)) {
+            generate(child);
+        }
+        long start = System.nanoTime();
+        Path file = directory.resolve(name + Tablebase.EXTENSION);
+        int longest = build(parsed, file);
+        tablebase.load(file);
+        System.out.println(name + ": longest mate " + longest + " plies, "
+                         + Files.size(file) + " bytes, " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+    
+    // Materials reachable by one capture, promotion or capturing promotion
+    private static Set<String> conversions(String name) {
+        int split = name.indexOf('K', 1);
+        String[] sides = {name.substring(0, split), name.substring(split)};
+        Set<String> children = new LinkedHashSet<>();
+        for (int side = 0; side < 2; side++) {
+            String us = sides[side];
+            String them = sides[1 - side];
+            for (int i = 1; i < us.length(); i++) {
+                addChild(children, remove(us, i), them);
+                if (us.charAt(i) != 'P') continue;
+                for (char promotion : "QRBN".toCharArray()) {
+                    String promoted = remove(us, i) + promotion;
+                    addChild(children, promoted, them);
+                    for (int j = 1; j < them.length(); j++) {
+                        addChild(children, promoted, remove(them, j));
+                    }
+                }
+            }
+        }
+        return children;
+    }
+    
+    private static void addChild(Set<String> children, String a, String b) {
+        if (a.length() + b.length() > 2) {
+            children.add(Tablebase.Material.canonical(a + b));
+        }
+    }
+    
+    private static String remove(String side, int index) {
+        return side.substring(0, index) + side.substring(index + 1);
+    }
+    
+    // Generates and writes one table; returns the longest mate in plies
+    private int build(Tablebase.Material material, Path file) throws IOException {
+        int size = material.size();
+        byte[][] values = {new byte[size], new byte[size]};
+        byte[][] remaining = {new byte[size], new byte[size]};
+        byte[][] conversion = {new byte[size], new byte[size]};
+        
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Callable<Integer>> classify = new ArrayList<>();
+            for (int side = 0; side < 2; side++) {
+                for (int from = 0; from < size; from += CHUNK) {
+                    Worker worker = new Worker(material, side, from, Math.min(size, from + CHUNK));
+                    classify.add(() -> worker.classify(values[worker.side], remaining[worker.side],
+                                                       conversion[worker.side]));
+                }
+            }
+            int longest = 0;
+            for (int distance : runAll(pool, classify)) {
+                longest = Math.max(longest, distance);
+            }
+            
+            for (int ply = 0; ply <= longest; ply++) {
+                int current = ply;
+                List<Callable<int[]>> scan = new ArrayList<>();
+                for (int side = 0; side < 2; side++) {
+                    for (int from = 0; from < size; from += CHUNK) {
+                        Worker worker = new Worker(material, side, from, Math.min(size, from + CHUNK));
+                        scan.add(() -> worker.predecessors(values[worker.side], remaining[1 - worker.side], current));
+                    }
+                }
+                List<int[]> found = runAll(pool, scan);
+                for (int i = 0; i < found.size(); i++) {
+                    int previous = 1 - i / (found.size() / 2);
+                    int[] list = found.get(i);
+                    for (int j = 1; j <= list[0]; j++) {
+                        int distance = apply(values[previous], remaining[previous], conversion[previous], list[j], current);
+                        longest = Math.max(longest, distance);
+                    }
+                }
+            }
+            if (longest > MAX_DISTANCE) {
+                throw new IllegalStateException(material.name() + " has mates longer than " + MAX_DISTANCE + " plies");
+            }
+            write(material, values, longest, file);
+            return longest;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+    
+    // Records that the position reached after previous's move is resolved at
+    // ply; returns the distance assigned to previous, or 0
+    private static int apply(byte[] values, byte[] remaining, byte[] conversion, int index, int ply) {
+        int value = values[index] & 0xFF;
+        if ((ply & 1) == 0) {
+            // The mover gets there a lost position for the opponent: a win
+            if (value == 0 || (value - 1) > ply + 1) {
+                values[index] = (byte) (ply + 2);
+                return ply + 1;
+            }
+            return 0;
+        }
+        if (value != 0) return 0;
+        int left = (remaining[index] & 0xFF) - 1;
+        remaining[index] = (byte) left;
+        int conversionLoss = conversion[index] & 0xFF;
+        if (left == 0 && conversionLoss != NO_LOSS) {
+            int distance = Math.max(ply + 1, conversionLoss);
+            values[index] = (byte) Math.min(distance + 1, 0xFF);
+            return distance;
+        }
+        return 0;
+    }
+    
+    private static <T> List<T> runAll(ExecutorService pool, List<Callable<T>> tasks) throws IOException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while generating tables", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException("Table generation failed", e.getCause());
+        }
+        return results;
+    }
+    
+    // Packs every value into the smallest bit width that holds the largest
+    private static void write(Tablebase.Material material, byte[][] values, int longest, Path file) throws IOException {
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(longest + 1));
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            Tablebase.Table.writeHeader(out, material, bits);
+            long pending = 0L;
+            int pendingBits = 0;
+            for (byte[] side : values) {
+                for (byte value : side) {
+                    pending |= (long) (value & 0xFF) << pendingBits;
+                    pendingBits += bits;
+                    if (pendingBits >= 32) {
+                        if (out.remaining() < 4) drain(channel, out);
+                        out.putInt((int) pending);
+                        pending >>>= 32;
+                        pendingBits -= 32;
+                    }
+                }
+            }
+            if (out.remaining() < 16) drain(channel, out);
+            for (; pendingBits > 0; pendingBits -= 8) {
+                out.put((byte) pending);
+                pending >>>= 8;
+            }
+            out.putLong(0L);
+            drain(channel, out);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+    
+    private static void drain(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+    
+    // One range of indexes for one side to move, with its own board and
+    // scratch space
+    private final class Worker {
+        final Tablebase.Material material;
+        final int side;
+        final int from;
+        final int to;
+        private final int[] squares;
+        private final int[] scratch;
+        
+        Worker(Tablebase.Material material, int side, int from, int to) {
+            this.material = material;
+            this.side = side;
+            this.from = from;
+            this.to = to;
+            this.squares = new int[material.pieceCount()];
+            this.scratch = new int[material.pieceCount()];
+        }
+        
+        // First pass: legality, mates, and moves that leave the table.
+        // Returns the longest distance assigned.
+        int classify(byte[] values, byte[] remaining, byte[] conversion) {
+            ChessBoard board = new ChessBoard();
+            byte[] codes = new byte[64];
+            Arrays.fill(codes, (byte) Bitboards.EMPTY);
+            int[] moves = new int[MoveGenerator.MAX_MOVES];
+            boolean white = side == Bitboards.WHITE;
+            int longest = 0;
+            for (int index = from; index < to; index++) {
+                material.decode(index, squares);
+                if (!material.isPlacement(squares)) {
+                    remaining[index] = (byte) INVALID;
+                    continue;
+                }
+                for (int i = 0; i < squares.length; i++) {
+                    codes[squares[i]] = (byte) material.codes[i];
+                }
+                board.loadPosition(codes, white, 0, -1, 0, 1);
+                for (int sq : squares) {
+                    codes[sq] = (byte) Bitboards.EMPTY;
+                }
+                if (board.isInCheck(!white)) {
+                    remaining[index] = (byte) INVALID;
+                    continue;
+                }
+                
+                int count = board.generateMoves(moves);
+                if (count == 0) {
+                    if (board.isInCheck(white)) {
+                        values[index] = 1;
+                    } else {
+                        conversion[index] = (byte) NO_LOSS;
+                    }
+                    continue;
+                }
+                int quiet = 0;
+                int win = Integer.MAX_VALUE;
+                int loss = 0;
+                boolean noLoss = false;
+                for (int i = 0; i < count; i++) {
+                    int move = moves[i];
+                    if (!Move.isCapture(move) && Move.flags(move) != Move.PROMOTION) {
+                        quiet++;
+                        continue;
+                    }
+                    board.makeMove(move);
+                    int reply = tablebase.probe(board);
+                    board.unmakeMove();
+                    if (reply == Tablebase.NOT_FOUND) {
+                        throw new IllegalStateException("No table for a conversion from " + material.name());
+                    }
+                    if (Tablebase.isLoss(reply)) {
+                        win = Math.min(win, Tablebase.pliesToMate(reply) + 1);
+                        noLoss = true;
+                    } else if (Tablebase.isWin(reply)) {
+                        loss = Math.max(loss, Tablebase.pliesToMate(reply) + 1);
+                    } else {
+                        noLoss = true;
+                    }
+                }
+                remaining[index] = (byte) quiet;
+                conversion[index] = (byte) (noLoss ? NO_LOSS : loss);
+                if (win != Integer.MAX_VALUE) {
+                    values[index] = (byte) (win + 1);
+                    longest = Math.max(longest, win);
+                } else if (quiet == 0 && !noLoss) {
+                    values[index] = (byte) (loss + 1);
+                    longest = Math.max(longest, loss);
+                }
+            }
+            return longest;
+        }
+        
+        // Positions of the other side to move that reach one of this range's
+        // positions resolved at ply with a move that stays in the table.
+        // Element 0 of the result holds the count.
+        int[] predecessors(byte[] values, byte[] previousRemaining, int ply) {
+            int[] found = new int[64];
+            int count = 0;
+            int mover = 1 - side;
+            for (int index = from; index < to; index++) {
+                if ((values[index] & 0xFF) != ply + 1) continue;
+                material.decode(index, squares);
+                long occupied = 0L;
+                for (int sq : squares) {
+                    occupied |= 1L << sq;
+                }
+                for (int i = 0; i < squares.length; i++) {
+                    int code = material.codes[i];
+                    if (Bitboards.colorOf(code) != mover) continue;
+                    long origins = origins(code, squares[i], occupied);
+                    for (; origins != 0; origins &= origins - 1) {
+                        System.arraycopy(squares, 0, scratch, 0, squares.length);
+                        scratch[i] = Long.numberOfTrailingZeros(origins);
+                        int previous = material.index(scratch);
+                        if ((previousRemaining[previous] & 0xFF) == INVALID) continue;
+                        if (count + 1 == found.length) {
+                            found = Arrays.copyOf(found, found.length * 2);
+                        }
+                        found[++count] = previous;
+                    }
+                }
+            }
+            found[0] = count;
+            return found;
+        }
+        
+        // Empty squares the piece on sq could have come from without capturing
+        private long origins(int code, int sq, long occupied) {
+            long empty = ~occupied;
+            switch (Bitboards.typeOf(code)) {
+                case Bitboards.KING:
+                    return Bitboards.KING_ATTACKS[sq] & empty;
+                case Bitboards.KNIGHT:
+                    return Bitboards.KNIGHT_ATTACKS[sq] & empty;
+                case Bitboards.BISHOP:
+                    return Bitboards.bishopAttacks(sq, occupied) & empty;
+                case Bitboards.ROOK:
+                    return Bitboards.rookAttacks(sq, occupied) & empty;
+                case Bitboards.QUEEN:
+                    return Bitboards.queenAttacks(sq, occupied) & empty;
+                default:
+                    break;
+            }
+            // Pawns step back toward their own side, two squares from the fourth rank
+            int row = sq >>> 3;
+            int back = Bitboards.colorOf(code) == Bitboards.WHITE ? 8 : -8;
+            int single = sq + back;
+            int singleRow = single >>> 3;
+            if (singleRow == 0 || singleRow == 7 || (occupied & (1L << single)) != 0) {
+                return 0L;
+            }
+            long result = 1L << single;
+            int doubleRow = back > 0 ? 4 : 3;
+            if (row == doubleRow && (occupied & (1L << (single + back))) == 0) {
+                result |= 1L << (single + back);
+            }
+            return result;
+        }
+    }
+    
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: TablebaseGenerator <directory> <material>... [--threads N]");
+            System.exit(2);
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        List<String> materials = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                materials.add(args[i]);
+            }
+        }
+        TablebaseGenerator generator = new TablebaseGenerator(Paths.get(args[0]), threads);
+        for (String material : materials) {
+            generator.generate(material);
+        }
+    }
+}
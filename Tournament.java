@@ -0,0 +1,710 @@
+package smartchess;
+
+// Tournament.java - Headless engine-vs-engine matches with Elo and SPRT
+//
+// Two engine settings, A and B, play each opening twice with colours
+// swapped, so neither side profits from a lucky opening. Games run on a
+// fixed pool with one game per thread; every thread keeps its own
+// searches and transposition tables and reuses them from game to game.
+// A game ends on the board's own rules (mate, stalemate, threefold
+// repetition, fifty moves, insufficient material), when a tablebase knows
+// the result, or as a draw at the ply limit.
+//
+// After each game the score of A is turned into an Elo difference with a
+// 95% interval, and a sequential probability ratio test compares "A is
+// elo0 stronger" against "A is elo1 stronger". Once the log-likelihood
+// ratio leaves its bounds no new games are started, which usually settles
+// a question in far fewer games than a fixed-length match. The score
+// variance is taken with half a game of each result added, so a one-sided
+// run (all wins, say) still has a variance and the test can stop on it.
+//
+// Engine settings: comma-separated depth=N, nodes=N, time=MS, hash=MB,
+// and classpath=PATH to search with another build of SmartChess (a jar or
+// classes directory, or several joined by the path separator). That build
+// is loaded in its own class loader and needs the public Search API of
+// this one; it keeps its own board in step by replaying each move in
+// coordinate notation, so the two builds may encode moves differently.
+// An opening file has one FEN or one line of SAN moves per line.
+//
+// Usage: Tournament --a SETTINGS --b SETTINGS [--games N] [--threads N]
+//                   [--openings file | --random-plies N] [--seed N]
+//                   [--sprt ELO0 ELO1] [--alpha P] [--beta P]
+//                   [--max-plies N] [--tablebase dir] [--pgn out.pgn]
+//        Tournament --verify
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public final class Tournament {
+    public static final int DEFAULT_MAX_PLIES = 400;
+    public static final int DEFAULT_RANDOM_PLIES = 6;
+    
+    // One side's search settings
+    public static final class Engine {
+        private final String name;
+        private final SearchLimits limits;
+        private final int tableMb;
+        private final OtherBuild build;
+        
+        public Engine(String name, SearchLimits limits, int tableMb) {
+            this(name, limits, tableMb, null);
+        }
+        
+        private Engine(String name, SearchLimits limits, int tableMb, OtherBuild build) {
+            this.name = name;
+            this.limits = limits;
+            this.tableMb = tableMb;
+            this.build = build;
+        }
+        
+        // Parses "depth=6", "nodes=50000,hash=32", "time=100,classpath=old.jar" and so on
+        public static Engine parse(String name, String settings) {
+            int depth = SearchLimits.MAX_DEPTH;
+            long nodes = Long.MAX_VALUE;
+            long time = Long.MAX_VALUE;
+            int tableMb = Search.DEFAULT_TABLE_MB;
+            String classpath = null;
+            for (String setting : settings.split(",")) {
+                String[] pair = setting.trim().split("=", 2);
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("Bad engine setting: " + setting);
+                }
+                switch (pair[0]) {
+                    case "depth" -> depth = Integer.parseInt(pair[1]);
+                    case "nodes" -> nodes = Long.parseLong(pair[1]);
+                    case "time" -> time = Long.parseLong(pair[1]);
+                    case "hash" -> tableMb = Integer.parseInt(pair[1]);
+                    case "classpath" -> classpath = pair[1];
+                    default -> throw new IllegalArgumentException("Unknown engine setting: " + pair[0]);
+                }
+            }
+            if (depth == SearchLimits.MAX_DEPTH && nodes == Long.MAX_VALUE && time == Long.MAX_VALUE) {
+                throw new IllegalArgumentException("Engine " + name + " needs a depth, nodes or time limit");
+            }
+            SearchLimits limits = new SearchLimits(depth, nodes, time);
+            return new Engine(name + " (" + settings + ")", limits, tableMb,
+                              classpath != null ? OtherBuild.load(classpath, limits) : null);
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        // A fresh player for one thread's games
+        Player newPlayer() {
+            return build != null ? build.newPlayer(tableMb) : new LocalPlayer(new Search(new TranspositionTable(tableMb)), limits);
+        }
+    }
+    
+    // One side's searcher, kept by a thread from game to game
+    interface Player {
+        // Forgets the previous game; board is the new game's opening
+        void newGame(ChessBoard board);
+        
+        // Best move for board, 0 if there is none
+        int bestMove(ChessBoard board);
+        
+        // Nodes searched by the last bestMove
+        long lastNodes();
+    }
+    
+    private static final class LocalPlayer implements Player {
+        private final Search search;
+        private final SearchLimits limits;
+        private long nodes;
+        
+        LocalPlayer(Search search, SearchLimits limits) {
+            this.search = search;
+            this.limits = limits;
+        }
+        
+        @Override
+        public void newGame(ChessBoard board) {
+            search.getTable().clear();
+        }
+        
+        @Override
+        public int bestMove(ChessBoard board) {
+            SearchResult result = search.search(board, limits);
+            nodes = result.getNodes();
+            return result.getBestMove();
+        }
+        
+        @Override
+        public long lastNodes() {
+            return nodes;
+        }
+    }
+    
+    // Search, ChessBoard and friends from another build, reached by reflection
+    // since their classes are not this build's
+    private static final class OtherBuild {
+        private final Constructor<?> newBoard;
+        private final Constructor<?> newSearch;
+        private final Constructor<?> newTable;
+        private final Method search;
+        private final Method getTable;
+        private final Method clear;
+        private final Method generateMoves;
+        private final Method makeMove;
+        private final Method toCoordinate;
+        private final Method getBestMove;
+        private final Method getNodes;
+        private final Object limits;
+        
+        private OtherBuild(ClassLoader loader, SearchLimits limits) throws ReflectiveOperationException {
+            Class<?> board = Class.forName("smartchess.ChessBoard", true, loader);
+            Class<?> searchClass = Class.forName("smartchess.Search", true, loader);
+            Class<?> table = Class.forName("smartchess.TranspositionTable", true, loader);
+            Class<?> limitsClass = Class.forName("smartchess.SearchLimits", true, loader);
+            Class<?> result = Class.forName("smartchess.SearchResult", true, loader);
+            newBoard = board.getConstructor(String.class);
+            newSearch = searchClass.getConstructor(table);
+            newTable = table.getConstructor(long.class);
+            search = searchClass.getMethod("search", board, limitsClass);
+            getTable = searchClass.getMethod("getTable");
+            clear = table.getMethod("clear");
+            generateMoves = board.getMethod("generateMoves", int[].class);
+            makeMove = board.getMethod("makeMove", int.class);
+            // Move is package-private; the unnamed module lets us open it
+            toCoordinate = Class.forName("smartchess.Move", true, loader).getDeclaredMethod("toCoordinate", int.class);
+            toCoordinate.setAccessible(true);
+            getBestMove = result.getMethod("getBestMove");
+            getNodes = result.getMethod("getNodes");
+            this.limits = limitsClass.getConstructor(int.class, long.class, long.class)
+                    .newInstance(limits.getMaxDepth(), limits.getMaxNodes(), limits.getMaxTimeMillis());
+        }
+        
+        // Loads the build at classpath with the platform loader as parent, so
+        // none of its classes resolve to this build's
+        static OtherBuild load(String classpath, SearchLimits limits) {
+            List<URL> urls = new ArrayList<>();
+            try {
+                for (String entry : classpath.split(File.pathSeparator)) {
+                    urls.add(Paths.get(entry).toUri().toURL());
+                }
+                ClassLoader loader = new URLClassLoader(urls.toArray(new URL[0]), ClassLoader.getPlatformClassLoader());
+                return new OtherBuild(loader, limits);
+            } catch (MalformedURLException | ReflectiveOperationException | LinkageError e) {
+                throw new IllegalArgumentException("Cannot load a SmartChess build from " + classpath + ": " + e, e);
+            }
+        }
+        
+        Player newPlayer(int tableMb) {
+            Object searcher = invoke(newSearch, invoke(newTable, (long) tableMb));
+            return new OtherPlayer(searcher, call(getTable, searcher));
+        }
+        
+        // Plays from the other build's own board, replaying this build's moves on it
+        private final class OtherPlayer implements Player {
+            private final Object searcher;
+            private final Object table;
+            private final int[] scratch = new int[MoveGenerator.MAX_MOVES];
+            private Object board;
+            private int synced;
+            private long nodes;
+            
+            OtherPlayer(Object searcher, Object table) {
+                this.searcher = searcher;
+                this.table = table;
+            }
+            
+            @Override
+            public void newGame(ChessBoard start) {
+                call(clear, table);
+                board = invoke(newBoard, start.getFen());
+                synced = start.getPly();
+            }
+            
+            @Override
+            public int bestMove(ChessBoard position) {
+                // Catch up with the moves played since the last search
+                for (; synced < position.getPly(); synced++) {
+                    String text = Move.toCoordinate(position.moveAt(synced));
+                    int move = find(text);
+                    if (move == 0) {
+                        throw new IllegalStateException("Other build rejects move " + text);
+                    }
+                    call(makeMove, board, move);
+                }
+                Object result = call(search, searcher, board, limits);
+                nodes = (Long) call(getNodes, result);
+                int move = (Integer) call(getBestMove, result);
+                return move == 0 ? 0 : coordinateMove(position, (String) call(toCoordinate, null, move), scratch);
+            }
+            
+            @Override
+            public long lastNodes() {
+                return nodes;
+            }
+            
+            // The other build's move for a coordinate string, or 0
+            private int find(String text) {
+                int count = (Integer) call(generateMoves, board, scratch);
+                for (int i = 0; i < count; i++) {
+                    if (text.equals(call(toCoordinate, null, scratch[i]))) {
+                        return scratch[i];
+                    }
+                }
+                return 0;
+            }
+        }
+        
+        private static Object invoke(Constructor<?> constructor, Object... args) {
+            try {
+                return constructor.newInstance(args);
+            } catch (InvocationTargetException e) {
+                throw rethrow(e);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        private static Object call(Method method, Object target, Object... args) {
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw rethrow(e);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        
+        // The other build's own exception, unwrapped
+        private static RuntimeException rethrow(InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtime) return runtime;
+            if (cause instanceof Error error) throw error;
+            return new IllegalStateException(cause);
+        }
+    }
+    
+    // board's legal move in coordinate notation, or 0
+    private static int coordinateMove(ChessBoard board, String text, int[] scratch) {
+        int count = board.generateMoves(scratch);
+        for (int i = 0; i < count; i++) {
+            if (Move.toCoordinate(scratch[i]).equals(text)) {
+                return scratch[i];
+            }
+        }
+        return 0;
+    }
+    
+    private final Engine engineA;
+    private final Engine engineB;
+    private final List<String> openings;
+    private final int maxPlies;
+    private Tablebase tablebase;
+    private PgnWriter pgn;
+    private double elo0 = Double.NaN;
+    private double elo1;
+    private double alpha = 0.05;
+    private double beta = 0.05;
+    
+    // Counts from A's point of view, guarded by this
+    private int wins;
+    private int draws;
+    private int losses;
+    private final long[] nodes = new long[2];
+    private final long[] nanos = new long[2];
+    private final long[] moves = new long[2];
+    private final Map<String, Integer> reasons = new LinkedHashMap<>();
+    private volatile boolean stopped;
+    private String verdict;
+    
+    // openings are FENs, each played once with each colour
+    public Tournament(Engine engineA, Engine engineB, List<String> openings, int maxPlies) {
+        if (openings.isEmpty()) {
+            throw new IllegalArgumentException("No openings");
+        }
+        this.engineA = engineA;
+        this.engineB = engineB;
+        this.openings = openings;
+        this.maxPlies = maxPlies;
+    }
+    
+    // Ends games the tables cover with their exact result
+    public void setTablebase(Tablebase tablebase) {
+        this.tablebase = tablebase;
+    }
+    
+    // Every finished game is written here
+    public void setPgnWriter(PgnWriter pgn) {
+        this.pgn = pgn;
+    }
+    
+    // Stops once "A is elo1 stronger" or "A is elo0 stronger" is accepted
+    // with error rates alpha and beta
+    public void setSprt(double elo0, double elo1, double alpha, double beta) {
+        this.elo0 = elo0;
+        this.elo1 = elo1;
+        this.alpha = alpha;
+        this.beta = beta;
+    }
+    
+    // Plays up to games games on threads threads, fewer if the SPRT stops early
+    public void run(int games, int threads) throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        ThreadLocal<Player[]> players = ThreadLocal.withInitial(() -> new Player[] {
+            engineA.newPlayer(), engineB.newPlayer()
+        });
+        for (int game = 0; game < games; game++) {
+            int number = game;
+            pool.execute(() -> {
+                if (stopped) return;
+                play(number, players.get());
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+    }
+    
+    // Game n plays opening n / 2, with A as white when n is even
+    private void play(int number, Player[] players) {
+        boolean aIsWhite = number % 2 == 0;
+        ChessBoard board = new ChessBoard(openings.get(number / 2 % openings.size()));
+        for (Player player : players) {
+            player.newGame(board);
+        }
+        long[] gameNodes = new long[2];
+        long[] gameNanos = new long[2];
+        int[] gameMoves = new int[2];
+        String[] outcome;
+        while ((outcome = adjudicate(board)) == null) {
+            if (board.getPly() >= maxPlies) {
+                outcome = new String[] {"1/2-1/2", "ply limit"};
+                break;
+            }
+            int side = board.isWhiteTurn() == aIsWhite ? 0 : 1;
+            long start = System.nanoTime();
+            int move = players[side].bestMove(board);
+            gameNanos[side] += System.nanoTime() - start;
+            gameNodes[side] += players[side].lastNodes();
+            gameMoves[side]++;
+            if (move == 0) {
+                outcome = new String[] {"*", "no move"};
+                break;
+            }
+            board.makeMove(move);
+        }
+        record(number, board, aIsWhite, outcome, gameNodes, gameNanos, gameMoves);
+    }
+    
+    // Result and reason if the game is over, else null
+    private String[] adjudicate(ChessBoard board) {
+        GameStatus status = board.evaluateStatus();
+        if (status == GameStatus.CHECKMATE) {
+            return new String[] {board.isWhiteTurn() ? "0-1" : "1-0", "checkmate"};
+        }
+        if (status == GameStatus.STALEMATE) return new String[] {"1/2-1/2", "stalemate"};
+        if (board.isThreefoldRepetition()) return new String[] {"1/2-1/2", "repetition"};
+        if (board.getHalfmoveClock() >= 100) return new String[] {"1/2-1/2", "fifty moves"};
+        if (board.isInsufficientMaterial()) return new String[] {"1/2-1/2", "insufficient material"};
+        if (tablebase != null) {
+            String result = tablebase.adjudicate(board);
+            if (result != null) return new String[] {result, "tablebase"};
+        }
+        return null;
+    }
+    
+    private synchronized void record(int number, ChessBoard board, boolean aIsWhite, String[] outcome,
+                                     long[] gameNodes, long[] gameNanos, int[] gameMoves) {
+        String result = outcome[0];
+        score(result, aIsWhite);
+        reasons.merge(outcome[1], 1, Integer::sum);
+        for (int side = 0; side < 2; side++) {
+            nodes[side] += gameNodes[side];
+            nanos[side] += gameNanos[side];
+            moves[side] += gameMoves[side];
+        }
+        
+        if (pgn != null) {
+            Map<String, String> tags = new LinkedHashMap<>();
+            tags.put("Event", "SmartChess tournament");
+            tags.put("Round", Integer.toString(number + 1));
+            tags.put("White", aIsWhite ? engineA.name : engineB.name);
+            tags.put("Black", aIsWhite ? engineB.name : engineA.name);
+            tags.put("Result", result);
+            tags.put("Termination", outcome[1]);
+            try {
+                pgn.write(tags, board);
+            } catch (IOException e) {
+                System.err.println("Could not write game " + (number + 1) + ": " + e.getMessage());
+            }
+        }
+        
+        int played = wins + draws + losses;
+        if (played % 10 == 0 || verdict != null) {
+            System.out.println(summary());
+        }
+    }
+    
+    // Adds one game's result to A's score and checks the SPRT bounds
+    synchronized void score(String result, boolean aIsWhite) {
+        if (result.equals("1/2-1/2")) {
+            draws++;
+        } else if (result.equals("*")) {
+            // An engine without a move is a bug, not a result; leave it out of the score
+            return;
+        } else if (result.equals("1-0") == aIsWhite) {
+            wins++;
+        } else {
+            losses++;
+        }
+        if (!Double.isNaN(elo0) && verdict == null) {
+            double llr = llr();
+            if (llr >= Math.log((1 - beta) / alpha)) {
+                verdict = "H1 accepted (elo >= " + elo1 + ")";
+            } else if (llr <= Math.log(beta / (1 - alpha))) {
+                verdict = "H0 accepted (elo <= " + elo0 + ")";
+            }
+            if (verdict != null) {
+                stopped = true;
+            }
+        }
+    }
+    
+    // Log-likelihood ratio of elo1 over elo0 for the games so far, using the
+    // normal approximation to the per-game score distribution
+    synchronized double llr() {
+        int n = wins + draws + losses;
+        if (n == 0) return 0.0;
+        double score = (wins + 0.5 * draws) / n;
+        double variance = variance();
+        double s0 = expectedScore(elo0);
+        double s1 = expectedScore(elo1);
+        return n * (s1 - s0) * (2 * score - s0 - s1) / (2 * variance);
+    }
+    
+    // Per-game score variance with half a game of each result added, so it
+    // stays positive when every game so far had the same result
+    private double variance() {
+        double w = wins + 0.5;
+        double d = draws + 0.5;
+        double l = losses + 0.5;
+        double n = w + d + l;
+        double mean = (w + 0.5 * d) / n;
+        return (w * sq(1 - mean) + d * sq(0.5 - mean) + l * sq(mean)) / n;
+    }
+    
+    private static double sq(double x) {
+        return x * x;
+    }
+    
+    static double expectedScore(double elo) {
+        return 1.0 / (1.0 + Math.pow(10.0, -elo / 400.0));
+    }
+    
+    static double eloOf(double score) {
+        double clamped = Math.min(Math.max(score, 1e-6), 1 - 1e-6);
+        return -400.0 * Math.log10(1.0 / clamped - 1.0);
+    }
+    
+    // One-line standing: games, W/D/L, Elo with 95% interval and the LLR
+    public synchronized String summary() {
+        int n = wins + draws + losses;
+        StringBuilder out = new StringBuilder();
+        out.append("Games: ").append(n).append(" (+").append(wins).append(" =").append(draws)
+           .append(" -").append(losses).append(')');
+        if (n > 0) {
+            double score = (wins + 0.5 * draws) / n;
+            double margin = 1.96 * Math.sqrt(variance() / n);
+            double elo = eloOf(score);
+            out.append(String.format(" Elo: %.1f +/- %.1f", elo,
+                    (eloOf(score + margin) - eloOf(score - margin)) / 2));
+        }
+        if (!Double.isNaN(elo0)) {
+            out.append(String.format(" LLR: %.2f [%.2f, %.2f]", llr(),
+                    Math.log(beta / (1 - alpha)), Math.log((1 - beta) / alpha)));
+        }
+        return out.toString();
+    }
+    
+    // Summary, SPRT verdict, termination reasons and each engine's speed
+    public synchronized String report() {
+        StringBuilder out = new StringBuilder(summary()).append('\n');
+        if (!Double.isNaN(elo0)) {
+            out.append("SPRT: ").append(verdict != null ? verdict : "no decision").append('\n');
+        }
+        out.append("Termination:");
+        for (Map.Entry<String, Integer> reason : reasons.entrySet()) {
+            out.append(' ').append(reason.getKey()).append(' ').append(reason.getValue()).append(',');
+        }
+        out.setLength(out.length() - (reasons.isEmpty() ? 0 : 1));
+        out.append('\n');
+        Engine[] engines = {engineA, engineB};
+        for (int side = 0; side < 2; side++) {
+            long ms = nanos[side] / 1_000_000L;
+            out.append(side == 0 ? "A: " : "B: ").append(engines[side].name)
+               .append(String.format(", %.1f ms/move, %d nodes/move, %d nodes/s%n",
+                       moves[side] > 0 ? ms / (double) moves[side] : 0.0,
+                       moves[side] > 0 ? nodes[side] / moves[side] : 0L,
+                       nanos[side] > 0 ? nodes[side] * 1_000_000_000L / nanos[side] : 0L));
+        }
+        return out.toString();
+    }
+    
+    // FENs from a file of FEN or SAN lines; blank lines and # comments are skipped
+    public static List<String> loadOpenings(Path path) throws IOException {
+        List<String> openings = new ArrayList<>();
+        int[] buffer = new int[MoveGenerator.MAX_MOVES];
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            if (line.indexOf('/') >= 0) {
+                openings.add(new ChessBoard(line).getFen());
+                continue;
+            }
+            ChessBoard board = new ChessBoard();
+            for (String token : line.split("\\s+")) {
+                // Move numbers such as "1." are allowed and skipped
+                if (token.isEmpty() || Character.isDigit(token.charAt(0))) continue;
+                int move = San.parse(board, token, buffer);
+                if (move == 0) {
+                    throw new IllegalArgumentException("Illegal move " + token + " in opening: " + line);
+                }
+                board.makeMove(move);
+            }
+            openings.add(board.getFen());
+        }
+        return openings;
+    }
+    
+    // count distinct positions reached by plies random legal moves from the
+    // start, skipping lines that end the game
+    public static List<String> randomOpenings(int count, int plies, long seed) {
+        Random random = new Random(seed);
+        int[] moves = new int[MoveGenerator.MAX_MOVES];
+        List<String> openings = new ArrayList<>(count);
+        Set<Long> seen = new HashSet<>();
+        for (int attempt = 0; openings.size() < count && attempt < count * 100; attempt++) {
+            ChessBoard board = new ChessBoard();
+            for (int i = 0; i < plies; i++) {
+                int n = board.generateMoves(moves);
+                if (n == 0) break;
+                board.makeMove(moves[random.nextInt(n)]);
+            }
+            if (board.evaluateStatus().isGameOver() || !seen.add(board.getZobristKey())) continue;
+            openings.add(board.getFen());
+        }
+        return openings;
+    }
+    
+    public static void main(String[] args) throws Exception {
+        String settingsA = null;
+        String settingsB = null;
+        int games = 100;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path openingFile = null;
+        int randomPlies = DEFAULT_RANDOM_PLIES;
+        long seed = 1L;
+        double[] sprt = null;
+        double alpha = 0.05;
+        double beta = 0.05;
+        int maxPlies = DEFAULT_MAX_PLIES;
+        Path tablebaseDir = null;
+        Path pgnPath = null;
+        boolean verify = false;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--verify" -> verify = true;
+                case "--a" -> settingsA = args[++i];
+                case "--b" -> settingsB = args[++i];
+                case "--games" -> games = Integer.parseInt(args[++i]);
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--openings" -> openingFile = Paths.get(args[++i]);
+                case "--random-plies" -> randomPlies = Integer.parseInt(args[++i]);
+                case "--seed" -> seed = Long.parseLong(args[++i]);
+                case "--sprt" -> sprt = new double[] {Double.parseDouble(args[++i]), Double.parseDouble(args[++i])};
+                case "--alpha" -> alpha = Double.parseDouble(args[++i]);
+                case "--beta" -> beta = Double.parseDouble(args[++i]);
+                case "--max-plies" -> maxPlies = Integer.parseInt(args[++i]);
+                case "--tablebase" -> tablebaseDir = Paths.get(args[++i]);
+                case "--pgn" -> pgnPath = Paths.get(args[++i]);
+                default -> {
+                    System.err.println("Unknown option: " + args[i]);
+                    System.exit(2);
+                }
+            }
+        }
+        if (verify) {
+            System.exit(verifySprt() ? 0 : 1);
+        }
+        if (settingsA == null || settingsB == null) {
+            System.err.println("Usage: Tournament --a SETTINGS --b SETTINGS [--games N] [--threads N] "
+                             + "[--openings file | --random-plies N] [--seed N] [--sprt ELO0 ELO1] "
+                             + "[--alpha P] [--beta P] [--max-plies N] [--tablebase dir] [--pgn out.pgn]");
+            System.err.println("       Tournament --verify");
+            System.err.println("SETTINGS: comma-separated depth=N, nodes=N, time=MS, hash=MB, classpath=PATH");
+            System.exit(2);
+        }
+        
+        List<String> openings = openingFile != null ? loadOpenings(openingFile)
+                              : randomOpenings((games + 1) / 2, randomPlies, seed);
+        Tournament tournament = new Tournament(Engine.parse("A", settingsA), Engine.parse("B", settingsB),
+                                               openings, maxPlies);
+        if (sprt != null) {
+            tournament.setSprt(sprt[0], sprt[1], alpha, beta);
+        }
+        if (tablebaseDir != null) {
+            tournament.setTablebase(Tablebase.open(tablebaseDir));
+        }
+        Writer pgnOut = pgnPath != null ? Files.newBufferedWriter(pgnPath, StandardCharsets.UTF_8) : null;
+        try {
+            if (pgnOut != null) {
+                tournament.setPgnWriter(new PgnWriter(pgnOut));
+            }
+            long start = System.nanoTime();
+            tournament.run(games, threads);
+            System.out.print(tournament.report());
+            System.out.println("Openings: " + openings.size());
+            System.out.println("Time: " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            if (pgnOut != null) {
+                pgnOut.close();
+            }
+        }
+    }
+    
+    // Feeds one-sided result streams to the SPRT without playing: all wins
+    // must accept H1 and all losses H0, both well inside the game limit
+    private static boolean verifySprt() {
+        String[][] cases = {{"1-0", "H1"}, {"0-1", "H0"}};
+        boolean ok = true;
+        for (String[] c : cases) {
+            Tournament tournament = new Tournament(Engine.parse("A", "depth=1"), Engine.parse("B", "depth=1"),
+                                                   List.of(new ChessBoard().getFen()), DEFAULT_MAX_PLIES);
+            tournament.setSprt(0.0, 5.0, 0.05, 0.05);
+            int games = 0;
+            while (tournament.verdict == null && games < 1000) {
+                tournament.score(c[0], true);
+                games++;
+            }
+            boolean match = tournament.verdict != null && tournament.verdict.startsWith(c[1]);
+            System.out.println("all " + c[0] + ": " + (tournament.verdict != null ? tournament.verdict : "no decision")
+                             + " after " + games + " games" + (match ? " ok" : " expected " + c[1]));
+            ok &= match;
+        }
+        return ok;
+    }
+}
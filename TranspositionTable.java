@@ -0,0 +1,130 @@
+package smartchess;
+
+// TranspositionTable.java - Fixed-size, lock-free hash table for search results
+//
+// The table is one preallocated long[] sized once from a megabyte budget;
+// nothing is allocated while searching. Each entry is two longs: the data
+// word and the position key XOR-ed with it. A reader accepts an entry only
+// if the two words still XOR back to its key, so a slot torn by a
+// concurrent writer just reads as a miss and threads can share the table
+// without locks.
+//
+// Entries live in two-slot buckets: the first slot keeps the deepest result
+// (unless it is from an older search), the second always takes the newest.
+import java.util.Arrays;
+
+public final class TranspositionTable {
+    public static final int UPPER_BOUND = 1;
+    public static final int LOWER_BOUND = 2;
+    public static final int EXACT = 3;
+    
+    // Moves are stored without the bits above the promotion type
+    static final int MOVE_MASK = 0xFFFFF;
+    
+    private static final int LONGS_PER_BUCKET = 4;
+    
+    private final long[] table;
+    private final long bucketMask;
+    private volatile int generation;
+    
+    public TranspositionTable(long megabytes) {
+        if (megabytes < 1) {
+            throw new IllegalArgumentException("Table size must be at least 1 MB");
+        }
+        // Largest power-of-two bucket count that fits both the budget and a Java array
+        long buckets = Long.highestOneBit(megabytes * 1024 * 1024 / (LONGS_PER_BUCKET * Long.BYTES));
+        long maxBuckets = Long.highestOneBit((Integer.MAX_VALUE - 8) / LONGS_PER_BUCKET);
+        buckets = Math.min(buckets, maxBuckets);
+        table = new long[(int) (buckets * LONGS_PER_BUCKET)];
+        bucketMask = buckets - 1;
+    }
+    
+    // Data word for key, or 0 if the position is not stored
+    public long probe(long key) {
+        int base = bucketIndex(key);
+        for (int slot = base; slot < base + LONGS_PER_BUCKET; slot += 2) {
+            long data = table[slot + 1];
+            if ((table[slot] ^ data) == key && data != 0) {
+                return data;
+            }
+        }
+        return 0L;
+    }
+    
+    public void store(long key, int move, int score, int depth, int bound) {
+        int base = bucketIndex(key);
+        int current = generation;
+        long deepData = table[base + 1];
+        boolean sameKey = (table[base] ^ deepData) == key;
+        
+        // Keep the best move we already know if this result has none
+        if (move == 0 && sameKey) {
+            move = move(deepData);
+        }
+        long data = pack(move, score, depth, bound, current);
+        
+        if (sameKey || deepData == 0 || depth >= depth(deepData) || generation(deepData) != current) {
+            table[base] = key ^ data;
+            table[base + 1] = data;
+        } else {
+            table[base + 2] = key ^ data;
+            table[base + 3] = data;
+        }
+    }
+    
+    // Called at the start of each search so older entries lose priority
+    public void newSearch() {
+        generation = (generation + 1) & 0xFF;
+    }
+    
+    public void clear() {
+        Arrays.fill(table, 0L);
+    }
+    
+    public long getSizeBytes() {
+        return (long) table.length * Long.BYTES;
+    }
+    
+    // Occupancy of the first 1000 buckets, in permille
+    public int hashfull() {
+        int used = 0;
+        int sample = (int) Math.min(1000, bucketMask + 1);
+        for (int i = 0; i < sample; i++) {
+            if (table[i * LONGS_PER_BUCKET + 1] != 0) used++;
+        }
+        return used * 1000 / sample;
+    }
+    
+    private int bucketIndex(long key) {
+        return (int) (key & bucketMask) * LONGS_PER_BUCKET;
+    }
+    
+    // move 20 bits | score 16 | depth 8 | bound 2 | generation 8
+    private static long pack(int move, int score, int depth, int bound, int generation) {
+        return (move & MOVE_MASK)
+             | ((long) (score & 0xFFFF) << 20)
+             | ((long) (depth & 0xFF) << 36)
+             | ((long) bound << 44)
+             | ((long) generation << 46);
+    }
+    
+    public static int move(long data) {
+        return (int) (data & MOVE_MASK);
+    }
+    
+    public static int score(long data) {
+        return (short) (data >>> 20);
+    }
+    
+    public static int depth(long data) {
+        return (int) (data >>> 36) & 0xFF;
+    }
+    
+    public static int bound(long data) {
+        return (int) (data >>> 44) & 0x3;
+    }
+    
+    private static int generation(long data) {
+        return (int) (data >>> 46) & 0xFF;
+    }
+}
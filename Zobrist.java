@@ -0,0 +1,45 @@
+package smartchess;
+
+// Zobrist.java - Random keys for incremental 64-bit position hashing
+//
+// Keys come from a fixed seed so hashes are stable across runs and can be
+// stored on disk (books, indexes, tables).
+final class Zobrist {
+    public static final int WHITE_KINGSIDE = 1;
+    public static final int WHITE_QUEENSIDE = 2;
+    public static final int BLACK_KINGSIDE = 4;
+    public static final int BLACK_QUEENSIDE = 8;
+
+    static final long[][] PIECE_SQUARE = new long[12][64];
+    static final long[] CASTLING = new long[16];
+    static final long[] EN_PASSANT_FILE = new long[8];
+    static final long SIDE_TO_MOVE;
+
+    private static long seed = 0x5EED_C4E5_5BAD_F00DL;
+
+    static {
+        for (int code = 0; code < 12; code++) {
+            for (int sq = 0; sq < 64; sq++) {
+                PIECE_SQUARE[code][sq] = next();
+            }
+        }
+        for (int rights = 0; rights < 16; rights++) {
+            CASTLING[rights] = rights == 0 ? 0L : next();
+        }
+        for (int file = 0; file < 8; file++) {
+            EN_PASSANT_FILE[file] = next();
+        }
+        SIDE_TO_MOVE = next();
+    }
+
+    private Zobrist() {
+    }
+
+    // SplitMix64
+    private static long next() {
+        long z = (seed += 0x9E3779B97F4A7C15L);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,41 @@
+package smartchess;
+
+// BenchPositions.java - Fixed positions shared by the rules benchmarks
+//
+// Positions are reached by playing coordinate moves from the start so they
+// stay valid whatever the board's internal representation is.
+final class BenchPositions {
+    static final String OPENING = "";
+    
+    // Closed Ruy Lopez after 8.c3 O-O: all 32 pieces still on the board
+    static final String MIDDLEGAME =
+        "e2e4 e7e5 g1f3 b8c6 f1b5 a7a6 b5a4 g8f6 e1g1 f8e7 f1e1 b7b5 a4b3 d7d6 c2c3 e8g8";
+    
+    // Seven pieces left: kings, a knight, a rook and pawns
+    static final String ENDGAME =
+        "f2f3 a7a5 g1h3 b7b6 e1f2 e7e6 b2b3 f8d6 e2e4 d6h2 h1h2 b6b5 f1b5 g8f6 b5d7 e8d7 "
+      + "f3f4 f6e4 f2e3 e4d2 c1d2 g7g6 d2a5 d7c6 a5c7 d8c7 f4f5 c7h2 f5e6 a8a2 a1a2 h2h3 "
+      + "g2h3 f7e6 d1f3 c6d6 e3f4 b8c6 f3c6 d6c6 a2a4 h7h6 a4d4 e6e5 f4e5 c8h3 d4d7 h3d7 "
+      + "b3b4 c6c7 e5d5 c7d8 d5e5 h8h7 b4b5 d7b5 b1a3 h7b7 a3b5";
+    
+    private BenchPositions() {
+    }
+    
+    static ChessBoard load(String name) {
+        String moves;
+        switch (name) {
+            case "opening": moves = OPENING; break;
+            case "middlegame": moves = MIDDLEGAME; break;
+            case "endgame": moves = ENDGAME; break;
+            default: throw new IllegalArgumentException("Unknown position: " + name);
+        }
+        
+        ChessBoard board = new ChessBoard();
+        for (String move : moves.trim().split("\\s+")) {
+            if (!move.isEmpty() && !Perft.playCoordinateMove(board, move)) {
+                throw new IllegalStateException("Illegal move in " + name + ": " + move);
+            }
+        }
+        return board;
+    }
+}
@@ -0,0 +1,57 @@
+package smartchess;
+
+// PieceRulesBenchmark.java - Piece.isValidMove per subclass over every target square
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PieceRulesBenchmark {
+    @Param({"opening", "middlegame", "endgame"})
+    public String position;
+    
+    @Param({"Pawn", "Knight", "Bishop", "Rook", "Queen", "King"})
+    public String piece;
+    
+    private ChessBoard board;
+    private Piece[] movers;
+    private Position[] origins;
+    private Position[] targets;
+    
+    @Setup
+    public void setup() {
+        board = BenchPositions.load(position);
+        
+        List<Piece> found = new ArrayList<>();
+        List<Position> at = new ArrayList<>();
+        targets = new Position[64];
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                targets[row * 8 + col] = new Position(row, col);
+                Piece p = board.getPiece(row, col);
+                if (p != null && p.getName().equals(piece)) {
+                    found.add(p);
+                    at.add(new Position(row, col));
+                }
+            }
+        }
+        movers = found.toArray(new Piece[0]);
+        origins = at.toArray(new Position[0]);
+    }
+    
+    @Benchmark
+    public void isValidMove(Blackhole bh) {
+        for (int i = 0; i < movers.length; i++) {
+            for (Position to : targets) {
+                bh.consume(movers[i].isValidMove(origins[i], to, board));
+            }
+        }
+    }
+}
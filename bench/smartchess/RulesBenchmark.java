@@ -0,0 +1,110 @@
+package smartchess;
+
+// RulesBenchmark.java - Throughput of the ChessBoard rules hot paths
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RulesBenchmark {
+    @Param({"opening", "middlegame", "endgame"})
+    public String position;
+    
+    private ChessBoard board;
+    private Position[] ownPieces;
+    private int[] moves;
+    private int moveCount;
+    private Position[] moveFrom;
+    private Position[] moveTo;
+    
+    @Setup
+    public void setup() {
+        board = BenchPositions.load(position);
+        moves = new int[MoveGenerator.MAX_MOVES];
+        moveCount = board.generateMoves(moves);
+        
+        List<Position> own = new ArrayList<>();
+        for (int row = 0; row < 8; row++) {
+            for (int col = 0; col < 8; col++) {
+                Piece piece = board.getPiece(row, col);
+                if (piece != null && piece.isWhite() == board.isWhiteTurn()) {
+                    own.add(new Position(row, col));
+                }
+            }
+        }
+        ownPieces = own.toArray(new Position[0]);
+        
+        moveFrom = new Position[moveCount];
+        moveTo = new Position[moveCount];
+        for (int i = 0; i < moveCount; i++) {
+            int from = Move.fromSquare(moves[i]);
+            int to = Move.toSquare(moves[i]);
+            moveFrom[i] = new Position(from >>> 3, from & 7);
+            moveTo[i] = new Position(to >>> 3, to & 7);
+        }
+    }
+    
+    @Benchmark
+    public void getValidMoves(Blackhole bh) {
+        for (Position from : ownPieces) {
+            bh.consume(board.getValidMoves(from));
+        }
+    }
+    
+    @Benchmark
+    public int generateMoves() {
+        return board.generateMoves(moves);
+    }
+    
+    // After a move, so the attack maps behind the check test are rebuilt
+    // rather than read from the cache
+    @Benchmark
+    public boolean isInCheck() {
+        board.makeMove(moves[0]);
+        boolean check = board.isInCheck(board.isWhiteTurn());
+        board.unmakeMove();
+        return check;
+    }
+    
+    // The side not to move is never cached, so this measures the full scan
+    @Benchmark
+    public void isCheckmateAndStalemate(Blackhole bh) {
+        boolean other = !board.isWhiteTurn();
+        bh.consume(board.isCheckmate(other));
+        bh.consume(board.isStalemate(other));
+    }
+    
+    // Status after a move has invalidated the cache
+    @Benchmark
+    public GameStatus evaluateStatusAfterMove() {
+        board.makeMove(moves[0]);
+        GameStatus status = board.evaluateStatus();
+        board.unmakeMove();
+        return status;
+    }
+    
+    @Benchmark
+    public long makeUnmakeAll() {
+        long keys = 0L;
+        for (int i = 0; i < moveCount; i++) {
+            board.makeMove(moves[i]);
+            keys ^= board.getZobristKey();
+            board.unmakeMove();
+        }
+        return keys;
+    }
+    
+    @Benchmark
+    public boolean movePieceUndo() {
+        boolean moved = board.movePiece(moveFrom[0], moveTo[0]);
+        board.undoLastMove();
+        return moved;
+    }
+}